@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler.json;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+import org.jenkinsci.plugins.externalscheduler.StateProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Capture of mocked Jenkins state and its serialization
+ *
+ * Jenkins objects are Mockito mocks that record every invocation, so they are
+ * recreated every iteration and allocation rate includes the recording.
+ * Compare results relative to each other rather than to {@link TranslatorBenchmark}.
+ *
+ * @author ogondza
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BuildQueryBenchmark {
+
+    private static final Translator TRANSLATOR = new Translator();
+
+    @Param({"100", "1000", "3000"})
+    public int items;
+
+    @Param({"10", "200", "800"})
+    public int nodes;
+
+    private StateProvider stateProvider;
+    private NodeAssignments assignments;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+
+        final Fixtures fixtures = new Fixtures(items, nodes);
+        stateProvider = fixtures.stateProvider();
+        assignments = fixtures.assignments();
+    }
+
+    @Benchmark
+    public String buildQuery() {
+
+        return TRANSLATOR.buildQuery(stateProvider, assignments);
+    }
+
+    @Benchmark
+    public QueueState capture() {
+
+        return TRANSLATOR.capture(stateProvider, assignments);
+    }
+
+    @Benchmark
+    public long writeQuery() throws IOException {
+
+        final TranslatorBenchmark.CountingOutputStream out = new TranslatorBenchmark.CountingOutputStream();
+        TRANSLATOR.writeQuery(stateProvider, assignments, out);
+        return out.count;
+    }
+}
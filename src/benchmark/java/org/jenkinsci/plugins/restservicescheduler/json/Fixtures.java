@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler.json;
+
+import hudson.model.Node;
+import hudson.model.Queue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import org.jenkinsci.plugins.externalscheduler.ItemMock;
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+import org.jenkinsci.plugins.externalscheduler.NodeMockFactory;
+import org.jenkinsci.plugins.externalscheduler.StateProvider;
+import org.jenkinsci.plugins.externalscheduler.StateProviderMock;
+import org.jenkinsci.plugins.restservicescheduler.json.QueueState.Item;
+import org.jenkinsci.plugins.restservicescheduler.json.QueueState.NodeState;
+
+/**
+ * Synthetic queues of given scale
+ *
+ * Nodes are split into label groups of about ten nodes. Every tenth item is
+ * unlabeled and can run on every node, the rest is spread across the groups.
+ * Every third item is assigned.
+ *
+ * @author ogondza
+ */
+/*package*/ final class Fixtures {
+
+    private final int items;
+    private final int nodes;
+    private final int labels;
+
+    /*package*/ Fixtures(final int items, final int nodes) {
+
+        this.items = items;
+        this.nodes = nodes;
+        this.labels = Math.max(1, nodes / 10);
+    }
+
+    /*package*/ QueueState queueState() {
+
+        final Map<String, NodeState> nodeStates = new LinkedHashMap<String, NodeState>();
+        for (int i = 0; i < nodes; i++) {
+
+            nodeStates.put(nodeName(i), new NodeState(nodeName(i), 4, i % 5));
+        }
+
+        final Map<Integer, Item> itemStates = new LinkedHashMap<Integer, Item>();
+        for (int i = 0; i < items; i++) {
+
+            final List<String> assignable = new ArrayList<String>();
+            for (int node = 0; node < nodes; node++) {
+
+                if (canRun(i, node)) {
+
+                    assignable.add(nodeName(node));
+                }
+            }
+
+            final String assigned = isAssigned(i) ? assignable.get(0) : null;
+            itemStates.put(i, new Item(i, 50, 1000L * i, itemName(i), assignable, assigned));
+        }
+
+        return new QueueState(itemStates, nodeStates);
+    }
+
+    /**
+     * Mocked state provider, every call on the mocks is recorded by Mockito
+     */
+    /*package*/ StateProvider stateProvider() {
+
+        final NodeMockFactory factory = new NodeMockFactory();
+
+        final List<Node> allNodes = new ArrayList<Node>(nodes);
+        for (int i = 0; i < nodes; i++) {
+
+            allNodes.add(factory.node(nodeName(i), 4, i % 5));
+        }
+
+        final List<Queue.BuildableItem> queue = ItemMock.list();
+        for (int i = 0; i < items; i++) {
+
+            SortedSet<Node> assignable = null;
+            if (label(i) >= 0) {
+
+                assignable = factory.set();
+                for (int node = 0; node < nodes; node++) {
+
+                    if (canRun(i, node)) {
+
+                        assignable.add(allNodes.get(node));
+                    }
+                }
+            }
+
+            queue.add(ItemMock.create(assignable, i, itemName(i), 1000L * i));
+        }
+
+        return new StateProviderMock(queue, allNodes);
+    }
+
+    /*package*/ NodeAssignments assignments() {
+
+        final NodeAssignments.Builder builder = NodeAssignments.builder();
+        for (int i = 0; i < items; i++) {
+
+            if (isAssigned(i)) {
+
+                builder.assign(i, nodeName(firstNode(i)));
+            }
+        }
+
+        return builder.build();
+    }
+
+    /*package*/ String solution() {
+
+        final StringBuilder solution = new StringBuilder("{\"solution\": [");
+        for (int i = 0; i < items; i++) {
+
+            if (i > 0) solution.append(',');
+
+            final String node = isAssigned(i) ? nodeName(firstNode(i)) : Translator.NOT_ASSIGNED;
+            solution.append("{\"id\": ").append(i)
+                    .append(", \"name\": \"").append(itemName(i))
+                    .append("\", \"node\": \"").append(node).append("\"}")
+            ;
+        }
+
+        return solution.append("]}").toString();
+    }
+
+    private int firstNode(final int item) {
+
+        return label(item) < 0 ? 0 : label(item);
+    }
+
+    private boolean canRun(final int item, final int node) {
+
+        final int label = label(item);
+        return label < 0 || node % labels == label;
+    }
+
+    /**
+     * @return Label group of item or -1 when unlabeled
+     */
+    private int label(final int item) {
+
+        return item % 10 == 0 ? -1 : (item * 7) % labels;
+    }
+
+    private boolean isAssigned(final int item) {
+
+        return item % 3 == 0;
+    }
+
+    private String nodeName(final int node) {
+
+        return "node-" + node;
+    }
+
+    private String itemName(final int item) {
+
+        return "job-" + item;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+import org.jenkinsci.plugins.restservicescheduler.Score;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization and deserialization throughput, latency and allocation
+ *
+ * Run with <tt>mvn -P benchmark test-compile exec:exec</tt>, the GC profiler
+ * reports allocation rate. Use <tt>-Dbenchmark.include=...</tt> to select
+ * benchmarks, <tt>benchmark.forks</tt>, <tt>benchmark.warmupIterations</tt> and
+ * <tt>benchmark.iterations</tt> override the run length.
+ *
+ * @author ogondza
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TranslatorBenchmark {
+
+    private static final Translator TRANSLATOR = new Translator();
+
+    @Param({"100", "1000", "10000"})
+    public int items;
+
+    @Param({"10", "200", "2000"})
+    public int nodes;
+
+    private QueueState state;
+    private String solution;
+    private byte[] solutionBytes;
+    private String score;
+
+    @Setup
+    public void setUp() throws IOException {
+
+        final Fixtures fixtures = new Fixtures(items, nodes);
+        state = fixtures.queueState();
+        solution = fixtures.solution();
+        solutionBytes = solution.getBytes("UTF-8");
+        score = "{\"score\": -42}";
+    }
+
+    @Benchmark
+    public long writeQuery() throws IOException {
+
+        final CountingOutputStream out = new CountingOutputStream();
+        TRANSLATOR.writeQuery(state, out);
+        return out.count;
+    }
+
+    @Benchmark
+    public long writeDictionaryQuery() throws IOException {
+
+        final CountingOutputStream out = new CountingOutputStream();
+        TRANSLATOR.writeDictionaryQuery(state, out);
+        return out.count;
+    }
+
+    @Benchmark
+    public NodeAssignments extractAssignments() {
+
+        return TRANSLATOR.extractAssignments(solution);
+    }
+
+    @Benchmark
+    public NodeAssignments extractAssignmentsFromStream() throws IOException {
+
+        return TRANSLATOR.extractAssignments(new ByteArrayInputStream(solutionBytes));
+    }
+
+    @Benchmark
+    public Score extractScore() {
+
+        return TRANSLATOR.extractScore(score);
+    }
+
+    /**
+     * Discard written bytes, count them only
+     */
+    /*package*/ static final class CountingOutputStream extends OutputStream {
+
+        /*package*/ long count = 0;
+
+        @Override
+        public void write(final int b) {
+
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+/**
+ * Period between planner updates adapting to how often things change
+ *
+ * Period drops to the floor whenever the update changed something or an
+ * event was reported and doubles up to the ceiling with every update that
+ * changed nothing.
+ *
+ * @author ogondza
+ */
+/*package*/ final class AdaptivePeriod {
+
+    private final long floor;
+    private final long ceiling;
+
+    private volatile long period;
+    private volatile long nextUpdate = 0;
+
+    /**
+     * Woken since the last update finished
+     */
+    private boolean woken = false;
+
+    /*package*/ AdaptivePeriod(final long floor, final long ceiling) {
+
+        if (floor <= 0) throw new IllegalArgumentException("Floor has to be positive: " + floor);
+        if (ceiling < floor) throw new IllegalArgumentException(
+                "Ceiling " + ceiling + " is lower than floor " + floor
+        );
+
+        this.floor = floor;
+        this.ceiling = ceiling;
+        this.period = floor;
+    }
+
+    /*package*/ long floor() {
+
+        return floor;
+    }
+
+    /*package*/ long period() {
+
+        return period;
+    }
+
+    /*package*/ boolean isDue(final long now) {
+
+        return now >= nextUpdate;
+    }
+
+    /**
+     * Update finished
+     *
+     * @param changed Queue, nodes or solution have changed
+     */
+    /*package*/ synchronized void updated(final long now, final boolean changed) {
+
+        // Events that came during the update might not be reflected
+        period = changed || woken ? floor : Math.min(period * 2, ceiling);
+        nextUpdate = now + period;
+        woken = false;
+    }
+
+    /**
+     * Something has changed, update as soon as possible
+     */
+    /*package*/ synchronized void wake() {
+
+        woken = true;
+        period = floor;
+        nextUpdate = 0;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import java.util.logging.Logger;
+
+/**
+ * Stop waiting for remote planner that fails or responds too slowly
+ *
+ * Breaker opens after several consecutive failures or once an update is
+ * stalled. Updates that take longer than the latency threshold count as
+ * failures. Open breaker lets single probing update through after a while
+ * and closes once it succeeds.
+ *
+ * @author ogondza
+ */
+/*package*/ final class CircuitBreaker {
+
+    private final static Logger LOGGER = Logger.getLogger(
+            CircuitBreaker.class.getName()
+    );
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long latencyThreshold;
+    private final long openPeriod;
+
+    private volatile State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt;
+
+    /**
+     * @param failureThreshold Consecutive failures to open the breaker
+     * @param latencyThreshold Milliseconds update can take to be considered successful
+     * @param openPeriod Milliseconds to wait before probing open breaker
+     */
+    /*package*/ CircuitBreaker(final int failureThreshold, final long latencyThreshold, final long openPeriod) {
+
+        if (failureThreshold <= 0) throw new IllegalArgumentException(
+                "Failure threshold has to be positive: " + failureThreshold
+        );
+        if (latencyThreshold <= 0) throw new IllegalArgumentException(
+                "Latency threshold has to be positive: " + latencyThreshold
+        );
+        if (openPeriod < 0) throw new IllegalArgumentException(
+                "Open period can not be negative: " + openPeriod
+        );
+
+        this.failureThreshold = failureThreshold;
+        this.latencyThreshold = latencyThreshold;
+        this.openPeriod = openPeriod;
+    }
+
+    /*package*/ long latencyThreshold() {
+
+        return latencyThreshold;
+    }
+
+    /**
+     * Remote planner is not to be relied on
+     */
+    /*package*/ boolean isOpen() {
+
+        return state != State.CLOSED;
+    }
+
+    /**
+     * @return true if update can be sent to remote planner
+     */
+    /*package*/ synchronized boolean allowRequest(final long now) {
+
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - openedAt < openPeriod) return false;
+
+                // Probe
+                state = State.HALF_OPEN;
+                return true;
+            default:
+                // Probe in progress
+                return false;
+        }
+    }
+
+    /**
+     * Update finished without error
+     *
+     * @param latency Milliseconds the update took
+     * @return true if the breaker was closed by this update
+     */
+    /*package*/ synchronized boolean succeeded(final long now, final long latency) {
+
+        if (latency > latencyThreshold) {
+
+            failed(now);
+            return false;
+        }
+
+        failures = 0;
+        if (state == State.CLOSED) return false;
+
+        LOGGER.info("Remote planner recovered");
+        state = State.CLOSED;
+        return true;
+    }
+
+    /*package*/ synchronized void failed(final long now) {
+
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+
+            open(now);
+        }
+    }
+
+    /**
+     * Update has not finished within the latency threshold
+     */
+    /*package*/ synchronized void stalled(final long now) {
+
+        if (state != State.OPEN) {
+
+            open(now);
+        }
+    }
+
+    private void open(final long now) {
+
+        LOGGER.warning("Remote planner is failing or slow, assigning locally");
+        Metrics.get().increment("breaker opened");
+        state = State.OPEN;
+        openedAt = now;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms of the round-trip to remote planner
+ *
+ * Shared by all planners the plugin talked to since Jenkins started.
+ *
+ * @author ogondza
+ */
+public final class Metrics {
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    /*package*/ Metrics() {}
+
+    public static Metrics get() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Record duration of request to planner
+     *
+     * @param endpoint HTTP method and path
+     * @param start {@link System#nanoTime()} when the request started
+     */
+    /*package*/ void latency(final String endpoint, final long start) {
+
+        histogram("latency " + endpoint, "ms").record(millisSince(start));
+    }
+
+    /**
+     * Record request to planner that failed
+     */
+    /*package*/ void error(final String endpoint) {
+
+        increment("errors " + endpoint);
+    }
+
+    /*package*/ void increment(final String name) {
+
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+
+            final AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+
+                counter = created;
+            }
+        }
+
+        counter.incrementAndGet();
+    }
+
+    public Histogram histogram(final String name, final String unit) {
+
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+
+            final Histogram created = new Histogram(name, unit);
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+
+                histogram = created;
+            }
+        }
+
+        return histogram;
+    }
+
+    /**
+     * @return Counter value, 0 when never incremented
+     */
+    public long count(final String name) {
+
+        final AtomicLong counter = counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Counters sorted by name
+     */
+    public Map<String, Long> getCounters() {
+
+        final Map<String, Long> values = new TreeMap<String, Long>();
+        for (final Map.Entry<String, AtomicLong> counter: counters.entrySet()) {
+
+            values.put(counter.getKey(), counter.getValue().get());
+        }
+
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Histograms sorted by name
+     */
+    public Collection<Histogram> getHistograms() {
+
+        return Collections.unmodifiableCollection(
+                new TreeMap<String, Histogram>(histograms).values()
+        );
+    }
+
+    /*package*/ void reset() {
+
+        histograms.clear();
+        counters.clear();
+    }
+
+    public static long millisSince(final long start) {
+
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Distribution of non-negative values in power of two buckets
+     *
+     * Percentiles are reported as the upper bound of the bucket so they are
+     * at most twice the real value.
+     */
+    public static final class Histogram {
+
+        private final String name;
+        private final String unit;
+
+        // Bucket i holds values from 2^(i-1) to 2^i - 1, bucket 0 holds zero
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        /*package*/ Histogram(final String name, final String unit) {
+
+            this.name = name;
+            this.unit = unit;
+        }
+
+        public void record(final long value) {
+
+            final long sample = Math.max(0, value);
+
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(sample));
+            count.incrementAndGet();
+            sum.addAndGet(sample);
+
+            long current;
+            while (sample > (current = max.get())) {
+
+                if (max.compareAndSet(current, sample)) break;
+            }
+        }
+
+        public String getName() {
+
+            return name;
+        }
+
+        public String getUnit() {
+
+            return unit;
+        }
+
+        public long getCount() {
+
+            return count.get();
+        }
+
+        public long getMean() {
+
+            final long count = this.count.get();
+            return count == 0 ? 0 : sum.get() / count;
+        }
+
+        public long getMax() {
+
+            return max.get();
+        }
+
+        public long getP50() {
+
+            return percentile(0.5);
+        }
+
+        public long getP90() {
+
+            return percentile(0.9);
+        }
+
+        public long getP99() {
+
+            return percentile(0.99);
+        }
+
+        /*package*/ long percentile(final double quantile) {
+
+            final long count = this.count.get();
+            if (count == 0) return 0;
+
+            final long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(upperBound(i), max.get());
+            }
+
+            return max.get();
+        }
+
+        private static long upperBound(final int bucket) {
+
+            return bucket == 0 ? 0 : (1L << bucket) - 1;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+/**
+ * Expose {@link Metrics} and {@link Tracer} at <tt>/rest-scheduler-metrics</tt>
+ *
+ * @author ogondza
+ */
+@Extension
+public class MetricsAction implements RootAction {
+
+    public String getIconFileName() {
+
+        // Not listed in side panel
+        return null;
+    }
+
+    public String getDisplayName() {
+
+        return "REST scheduler metrics";
+    }
+
+    public String getUrlName() {
+
+        return "rest-scheduler-metrics";
+    }
+
+    public Metrics getMetrics() {
+
+        return Metrics.get();
+    }
+
+    @RequirePOST
+    public HttpResponse doReset() {
+
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        Metrics.get().reset();
+        return HttpResponses.redirectToDot();
+    }
+
+    public Tracer getTracer() {
+
+        return Tracer.get();
+    }
+
+    @RequirePOST
+    public HttpResponse doTracing(
+            @QueryParameter final boolean enabled,
+            @QueryParameter final int sampling,
+            @QueryParameter final int maxBytes
+    ) {
+
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        try {
+
+            Tracer.get().configure(enabled, sampling, maxBytes);
+        } catch (IllegalArgumentException ex) {
+
+            return HttpResponses.error(400, ex.getMessage());
+        }
+        return HttpResponses.redirectToDot();
+    }
+
+    @RequirePOST
+    public HttpResponse doClearTrace() {
+
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        Tracer.get().clear();
+        return HttpResponses.redirectToDot();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+import org.jenkinsci.plugins.externalscheduler.StateProvider;
+import org.jenkinsci.plugins.restservicescheduler.json.QueueState;
+
+/**
+ * Remote planner the queue is sent to and solutions are fetched from
+ *
+ * @author ogondza
+ * @see RestScheduler
+ * @see ShardedPlanner
+ * @see PushPlanner
+ */
+public interface Planner {
+
+    URL remoteUrl();
+
+    /**
+     * Features supported by remote planner
+     */
+    Set<String> capabilities();
+
+    /**
+     * Number of queue updates sent to planner
+     */
+    long sentUpdates();
+
+    /**
+     * Number of queue updates skipped since planner already had the state
+     */
+    long skippedUpdates();
+
+    /**
+     * Capture the state to be sent, as briefly as possible
+     */
+    QueueState capture(StateProvider stateProvider, NodeAssignments assignments);
+
+    /**
+     * @return false in case planner is already up to date and nothing was sent
+     */
+    boolean queue(StateProvider stateProvider, NodeAssignments assignments) throws SchedulerException;
+
+    Future<Boolean> queueAsync(StateProvider stateProvider, NodeAssignments assignments);
+
+    /**
+     * Encode and send captured state without blocking the caller
+     */
+    Future<Boolean> queueAsync(QueueState state);
+
+    /**
+     * Changes can be sent on their own rather than as part of the whole queue
+     */
+    boolean acceptsChanges();
+
+    /**
+     * Send changes reported by events since the queue was last sent
+     *
+     * @return Future of false if changes could not be sent and whole queue needs to be sent
+     */
+    Future<Boolean> queueChangesAsync(
+            StateProvider stateProvider, NodeAssignments assignments, QueueChanges.Batch changes
+    );
+
+    Future<NodeAssignments> solutionAsync();
+
+    Planner stop() throws SchedulerException;
+}
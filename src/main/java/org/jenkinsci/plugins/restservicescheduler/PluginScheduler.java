@@ -24,11 +24,31 @@
 package org.jenkinsci.plugins.restservicescheduler;
 
 import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.Node;
 import hudson.model.PeriodicWork;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.QueueListener;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.FormValidation;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,38 +57,112 @@ import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.externalscheduler.ExternalScheduler;
 import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
 import org.jenkinsci.plugins.externalscheduler.Scheduler;
+import org.jenkinsci.plugins.restservicescheduler.json.QueueState;
+import org.jenkinsci.plugins.restservicescheduler.json.Translator;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 
+import com.sun.jersey.api.client.Client;
+
 public class PluginScheduler extends Scheduler {
 
     private final static Logger LOGGER = Logger.getLogger(
             PluginScheduler.class.getName()
     );
 
-    private static RemoteUpdater updater;
-    private static RestScheduler restScheduler;
+    /**
+     * Read without locking, replaced only while holding {@link #LIFECYCLE}
+     */
+    private static volatile RemoteUpdater updater;
+    private static final Object LIFECYCLE = new Object();
+
+    /**
+     * Milliseconds to wait for more events before sending queue changes
+     */
+    private static final long EVENT_DEBOUNCE = Long.getLong(
+            PluginScheduler.class.getName() + ".eventDebounce", 50
+    );
+
+    /**
+     * Milliseconds between sending whole queue in case events were missed
+     */
+    private static final long RECONCILIATION_PERIOD = Long.getLong(
+            PluginScheduler.class.getName() + ".reconciliationPeriod", 30 * 1000
+    );
+
+    /**
+     * Milliseconds between health probes of planner replicas
+     */
+    private static final long REPLICA_PROBE_PERIOD = Long.getLong(
+            PluginScheduler.class.getName() + ".replicaProbePeriod", 10 * 1000
+    );
+    private static volatile Planner restScheduler;
+
+    /*package*/ static final int DEFAULT_CONNECT_TIMEOUT = 10;
+    /*package*/ static final int DEFAULT_READ_TIMEOUT = 60;
+    /*package*/ static final int DEFAULT_COMPRESSION_THRESHOLD = 8;
 
     private final String serverUrl;
+    private final boolean deltaUpdates;
+
+    // Seconds, non-positive value stands for default
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final boolean compression;
+    // KiB
+    private final int compressionThreshold;
+    // Whitespace separated urls of planners to share the queue with
+    private final String shardUrls;
+    // Whitespace separated urls of planners equivalent to the main one
+    private final String replicaUrls;
+    private final boolean hedgedRequests;
 
     @DataBoundConstructor
-    public PluginScheduler(final String serverUrl) {
+    public PluginScheduler(
+            final String serverUrl,
+            final boolean deltaUpdates,
+            final int connectTimeout,
+            final int readTimeout,
+            final boolean compression,
+            final int compressionThreshold,
+            final String shardUrls,
+            final String replicaUrls,
+            final boolean hedgedRequests
+    ) {
 
         this.serverUrl = serverUrl;
+        this.deltaUpdates = deltaUpdates;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.compression = compression;
+        this.compressionThreshold = compressionThreshold;
+        this.shardUrls = shardUrls;
+        this.replicaUrls = replicaUrls;
+        this.hedgedRequests = hedgedRequests;
+
+        synchronized (LIFECYCLE) {
+
+            final Planner old = restScheduler;
+            if (old != null) {
+
+                restScheduler = null;
+                try {
+                    old.stop();
+                } catch (SchedulerException ex) {
+
+                    LOGGER.log(Level.INFO, "Failed stopping REST service scheduler at " + old.remoteUrl());
+                }
+            }
 
-        if (restScheduler != null) {
+            final Planner started = startScheduler(this);
+            restScheduler = started;
 
-            try {
-                restScheduler.stop();
-            } catch (SchedulerException ex) {
+            final RemoteUpdater updater = PluginScheduler.updater;
+            if (updater != null) {
 
-                LOGGER.log(Level.INFO, "Failed stopping REST service scheduler at " + restScheduler.remoteUrl());
+                updater.plannerStarted(started);
             }
-
-            restScheduler = null;
         }
-
-        restScheduler = startScheduler(serverUrl);
     }
 
     public String getServerUrl() {
@@ -76,19 +170,164 @@ public class PluginScheduler extends Scheduler {
         return serverUrl;
     }
 
+    public boolean isDeltaUpdates() {
+
+        return deltaUpdates;
+    }
+
+    public int getConnectTimeout() {
+
+        return connectTimeout > 0 ? connectTimeout : DEFAULT_CONNECT_TIMEOUT;
+    }
+
+    public int getReadTimeout() {
+
+        return readTimeout > 0 ? readTimeout : DEFAULT_READ_TIMEOUT;
+    }
+
+    public boolean isCompression() {
+
+        return compression;
+    }
+
+    public int getCompressionThreshold() {
+
+        return compressionThreshold > 0 ? compressionThreshold : DEFAULT_COMPRESSION_THRESHOLD;
+    }
+
+    public String getShardUrls() {
+
+        return shardUrls;
+    }
+
+    public String getReplicaUrls() {
+
+        return replicaUrls;
+    }
+
+    public boolean isHedgedRequests() {
+
+        return hedgedRequests;
+    }
+
+    /**
+     * Urls of all planners, the queue is sharded if there are more of them
+     */
+    /*package*/ List<String> plannerUrls() {
+
+        final List<String> urls = new ArrayList<String>();
+        urls.add(serverUrl);
+        urls.addAll(urls(shardUrls));
+        return urls;
+    }
+
+    /**
+     * Urls of replicas of the main planner
+     */
+    /*package*/ List<String> replicaUrls() {
+
+        return urls(replicaUrls);
+    }
+
+    private static List<String> urls(final String list) {
+
+        final List<String> urls = new ArrayList<String>();
+        if (list == null) return urls;
+
+        for (final String url: list.trim().split("\\s+")) {
+
+            if (url.length() > 0) {
+
+                urls.add(url);
+            }
+        }
+
+        return urls;
+    }
+
+    /**
+     * Queue updates sent and skipped as unchanged by running scheduler
+     */
+    public String getUpdateStatistics() {
+
+        final Planner scheduler = restScheduler;
+        if (scheduler == null) return "Not running";
+
+        final RemoteUpdater updater = PluginScheduler.updater;
+        return String.format(
+                "sent: %d, skipped as unchanged: %d, solution #%d%s",
+                scheduler.sentUpdates(),
+                scheduler.skippedUpdates(),
+                updater == null ? 0 : updater.published().version(),
+                updater != null && updater.isFallback() ? ", assigning locally" : ""
+        );
+    }
+
     @Override
     public NodeAssignments solution() {
 
-        return updater.currentAssignments;
+        final RemoteUpdater updater = PluginScheduler.updater;
+        return updater == null ? null : updater.published().assignments();
     }
 
-    public static RestScheduler startScheduler(final String url) {
+    /**
+     * Latest solution together with its version
+     *
+     * Dispatcher can compare the version with the one it last acted on to
+     * skip solutions it has already seen.
+     *
+     * @return null if updater is not running
+     */
+    public static PublishedSolution publishedSolution() {
+
+        final RemoteUpdater updater = PluginScheduler.updater;
+        return updater == null ? null : updater.published();
+    }
+
+    public static Planner startScheduler(final PluginScheduler config) {
 
+        final List<String> urls = config.plannerUrls();
+        final String url = urls.toString();
         try {
 
-            final RestScheduler restScheduler = getRestScheduler(url);
-            restScheduler.queue(stateProvider(), NodeAssignments.empty());
-            return restScheduler;
+            final Client client = RestScheduler.createClient(
+                    config.getConnectTimeout(), config.getReadTimeout(), config.isCompression()
+            );
+            final List<RestScheduler> shards = new ArrayList<RestScheduler>(urls.size());
+            for (final String shardUrl: urls) {
+
+                shards.add(restScheduler(config, shardUrl, client));
+            }
+
+            final List<String> replicaUrls = config.replicaUrls();
+            final Planner planner;
+            if (shards.size() > 1) {
+
+                if (!replicaUrls.isEmpty()) {
+
+                    LOGGER.warning("Planner replicas are ignored when the queue is sharded");
+                }
+                planner = new ShardedPlanner(shards);
+            } else if (!replicaUrls.isEmpty()) {
+
+                final List<RestScheduler> replicas = new ArrayList<RestScheduler>(shards);
+                for (final String replicaUrl: replicaUrls) {
+
+                    try {
+
+                        replicas.add(restScheduler(config, replicaUrl, client));
+                    } catch (SchedulerException ex) {
+
+                        LOGGER.log(Level.WARNING, "Planner replica " + replicaUrl + " not available", ex);
+                    }
+                }
+                planner = new ReplicatedPlanner(replicas, config.isHedgedRequests(), REPLICA_PROBE_PERIOD);
+            } else {
+
+                planner = shards.get(0);
+            }
+            planner.queue(stateProvider(), NodeAssignments.empty());
+            return planner;
         } catch (MalformedURLException ex) {
 
             LOGGER.log(Level.INFO, "Failed starting REST service scheduler at " + url, ex);
@@ -100,9 +339,24 @@ public class PluginScheduler extends Scheduler {
         return null;
     }
 
+    private static RestScheduler restScheduler(
+            final PluginScheduler config, final String url, final Client client
+    ) throws MalformedURLException, SchedulerException {
+
+        return new RestScheduler(
+                new URL(url),
+                client,
+                config.isDeltaUpdates(),
+                config.isCompression() ? config.getCompressionThreshold() * 1024 : -1
+        );
+    }
+
     private static RestScheduler getRestScheduler(final String serverUrl) throws MalformedURLException, SchedulerException {
 
-        return new RestScheduler(new URL(serverUrl));
+        final Client client = RestScheduler.createClient(
+                DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, false
+        );
+        return new RestScheduler(new URL(serverUrl), client);
     }
 
     @Extension
@@ -129,33 +383,222 @@ public class PluginScheduler extends Scheduler {
         }
     }
 
+    /**
+     * Update planner right after node comes or goes
+     */
+    @Extension
+    public static class NodeChangeListener extends ComputerListener {
+
+        @Override
+        public void onOnline(final Computer c, final TaskListener listener) {
+
+            wakeUpdater();
+        }
+
+        @Override
+        public void onOffline(final Computer c) {
+
+            wakeUpdater();
+        }
+
+        @Override
+        public void onTemporarilyOnline(final Computer c) {
+
+            wakeUpdater();
+        }
+
+        @Override
+        public void onTemporarilyOffline(final Computer c, final OfflineCause cause) {
+
+            wakeUpdater();
+        }
+
+        @Override
+        public void onConfigurationChange() {
+
+            wakeUpdater();
+        }
+    }
+
+    /**
+     * Send queue items as soon as they become buildable or stop being buildable
+     */
+    @Extension
+    public static class QueueChangeListener extends QueueListener {
+
+        @Override
+        public void onEnterBuildable(final Queue.BuildableItem bi) {
+
+            final RemoteUpdater updater = PluginScheduler.updater;
+            if (updater != null) {
+
+                updater.itemChanged(bi);
+            }
+        }
+
+        @Override
+        public void onLeaveBuildable(final Queue.BuildableItem bi) {
+
+            final RemoteUpdater updater = PluginScheduler.updater;
+            if (updater != null) {
+
+                updater.itemRemoved(bi.id);
+            }
+        }
+    }
+
+    /**
+     * Send executor changes of nodes as builds start and complete
+     */
+    @Extension
+    public static class ExecutorChangeListener extends RunListener<Run> {
+
+        @Override
+        public void onStarted(final Run r, final TaskListener listener) {
+
+            nodeChanged(r, false);
+        }
+
+        /**
+         * Executor is released only after listeners are notified
+         */
+        @Override
+        public void onCompleted(final Run r, final TaskListener listener) {
+
+            nodeChanged(r, true);
+        }
+
+        private void nodeChanged(final Run r, final boolean releasing) {
+
+            final RemoteUpdater updater = PluginScheduler.updater;
+            final Executor executor = r.getExecutor();
+            if (updater == null || executor == null) return;
+
+            final Node node = executor.getOwner().getNode();
+            if (node != null) {
+
+                updater.nodeChanged(node, releasing);
+            }
+        }
+    }
+
+    private static void wakeUpdater() {
+
+        final RemoteUpdater updater = PluginScheduler.updater;
+        if (updater != null) {
+
+            updater.wake();
+        }
+    }
+
     @Extension
     public static RemoteUpdater instantiateUpdater() {
 
-        if (updater != null) throw new IllegalStateException(
-                "Updater already initialized"
-        );
+        synchronized (LIFECYCLE) {
+
+            if (updater != null) throw new IllegalStateException(
+                    "Updater already initialized"
+            );
 
-        final ExternalScheduler external = Jenkins.getInstance().getPlugin(ExternalScheduler.class);
-        updater = new RemoteUpdater(external);
-        if (updater.getScheduler() != null) {
+            final ExternalScheduler external = Jenkins.getInstance().getPlugin(ExternalScheduler.class);
+            final RemoteUpdater created = new RemoteUpdater(external);
+            if (created.getScheduler() != null) {
 
-            restScheduler = startScheduler(updater.getScheduler().getServerUrl());
+                final Planner started = startScheduler(created.getScheduler());
+                restScheduler = started;
+                created.plannerStarted(started);
+            }
+            updater = created;
+            return created;
         }
-        return updater;
     }
 
     public static class RemoteUpdater extends PeriodicWork {
 
+        private static final Translator translator = new Translator();
+
         private final ExternalScheduler plugin;
 
-        private NodeAssignments currentAssignments;
+        /**
+         * Talks to planner so timer thread is never blocked
+         */
+        private final ExecutorService worker;
+        private Future<?> pendingUpdate;
+
+        /**
+         * Replaced atomically so dispatcher reads latest solution without locking
+         */
+        private final AtomicReference<PublishedSolution> published =
+                new AtomicReference<PublishedSolution>(PublishedSolution.NONE);
+
+        private volatile SolutionListener listener;
+
+        private final AdaptivePeriod period;
+
+        /**
+         * Assign locally while remote planner fails or does not respond
+         */
+        private final CircuitBreaker breaker;
+        private final ExecutorService fallback;
+        private volatile Future<?> pendingFallback;
+        private long updateStarted;
+
+        /**
+         * Changes reported by events, sent after short delay so bursts are coalesced
+         */
+        private final QueueChanges changes = new QueueChanges();
+        private final ScheduledExecutorService debouncer;
+
+        /**
+         * Whole queue is sent periodically to correct whatever events missed
+         */
+        private volatile boolean reconciliationRequested = true;
+        private long lastReconciliation = 0;
 
         public RemoteUpdater(final ExternalScheduler plugin) {
 
+            this(plugin, Executors.newSingleThreadExecutor(new DaemonThreadFactory()));
+        }
+
+        /*package*/ RemoteUpdater(final ExternalScheduler plugin, final ExecutorService worker) {
+
+            this(plugin, worker, new AdaptivePeriod(
+                    Long.getLong(PluginScheduler.class.getName() + ".minUpdatePeriod", 250),
+                    Long.getLong(PluginScheduler.class.getName() + ".maxUpdatePeriod", 5 * 1000)
+            ));
+        }
+
+        /*package*/ RemoteUpdater(
+                final ExternalScheduler plugin, final ExecutorService worker, final AdaptivePeriod period
+        ) {
+
+            this(plugin, worker, period, new CircuitBreaker(
+                    Integer.getInteger(PluginScheduler.class.getName() + ".failureThreshold", 3),
+                    Long.getLong(PluginScheduler.class.getName() + ".latencyThreshold", 10 * 1000),
+                    Long.getLong(PluginScheduler.class.getName() + ".breakerOpenPeriod", 30 * 1000)
+            ), Executors.newSingleThreadExecutor(new DaemonThreadFactory()));
+        }
+
+        /*package*/ RemoteUpdater(
+                final ExternalScheduler plugin,
+                final ExecutorService worker,
+                final AdaptivePeriod period,
+                final CircuitBreaker breaker,
+                final ExecutorService fallback
+        ) {
+
             if (plugin == null) throw new IllegalArgumentException("No plugin provided");
+            if (worker == null) throw new IllegalArgumentException("No worker provided");
+            if (period == null) throw new IllegalArgumentException("No period provided");
+            if (breaker == null) throw new IllegalArgumentException("No breaker provided");
+            if (fallback == null) throw new IllegalArgumentException("No fallback provided");
 
             this.plugin = plugin;
+            this.worker = worker;
+            this.period = period;
+            this.breaker = breaker;
+            this.fallback = fallback;
+            this.debouncer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
         }
 
         @Override
@@ -164,28 +607,295 @@ public class PluginScheduler extends Scheduler {
             return 0;
         }
 
+        /**
+         * Tick with the shortest period, updates are skipped until they are due
+         */
         @Override
         public long getRecurrencePeriod() {
 
-            return 5 * 1000;
+            return period.floor();
+        }
+
+        /**
+         * Send the whole queue to planner as soon as possible
+         */
+        public void wake() {
+
+            reconciliationRequested = true;
+            period.wake();
+        }
+
+        /*package*/ void itemChanged(final Queue.BuildableItem item) {
+
+            if (getScheduler() == null) return;
+
+            if (changes.itemChanged(item)) {
+
+                scheduleFlush();
+            }
+        }
+
+        /*package*/ void itemRemoved(final int id) {
+
+            if (getScheduler() == null) return;
+
+            if (changes.itemRemoved(id)) {
+
+                scheduleFlush();
+            }
+        }
+
+        /**
+         * @param releasing Executor is about to be released, capture the node once more later
+         */
+        /*package*/ void nodeChanged(final Node node, final boolean releasing) {
+
+            if (getScheduler() == null) return;
+
+            final boolean first = releasing
+                    ? changes.executorReleasing(node)
+                    : changes.nodeChanged(node)
+            ;
+            if (first) {
+
+                scheduleFlush();
+            }
+        }
+
+        /**
+         * Send changes once events stop coming, or let next due update send the whole queue
+         */
+        private void scheduleFlush() {
+
+            debouncer.schedule(new Runnable() {
+
+                public void run() {
+
+                    if (changes.collectReleased()) {
+
+                        // Check executors being released once more
+                        scheduleFlush();
+                    }
+
+                    if (changes.isEmpty()) return;
+
+                    period.wake();
+
+                    final Planner restScheduler = PluginScheduler.restScheduler;
+                    if (restScheduler != null && restScheduler.acceptsChanges()) {
+
+                        doRun();
+                    }
+                }
+            }, EVENT_DEBOUNCE, TimeUnit.MILLISECONDS);
         }
 
         @Override
-        protected void doRun() {
+        protected synchronized void doRun() {
 
             final PluginScheduler scheduler = getScheduler();
 
             if (scheduler == null || PluginScheduler.restScheduler == null) return;
 
+            final long now = System.currentTimeMillis();
+            if (!period.isDue(now)) return;
+
+            if (pendingUpdate != null && !pendingUpdate.isDone()) {
+
+                if (now - updateStarted >= breaker.latencyThreshold()) {
+
+                    // Do not let dispatching wait for planner that does not respond
+                    breaker.stalled(now);
+                    assignLocally();
+                } else {
+
+                    LOGGER.fine("Previous planner update still in progress");
+                }
+                return;
+            }
+
+            if (!breaker.allowRequest(now)) {
+
+                assignLocally();
+                return;
+            }
+
+            final Planner restScheduler = PluginScheduler.restScheduler;
+            updateStarted = now;
+            pendingUpdate = worker.submit(new Runnable() {
+
+                public void run() {
+
+                    final boolean changed = update(restScheduler);
+                    period.updated(System.currentTimeMillis(), changed);
+                }
+            });
+        }
+
+        /**
+         * Remote planner is bypassed
+         */
+        public boolean isFallback() {
+
+            return breaker.isOpen();
+        }
+
+        private void assignLocally() {
+
+            if (pendingFallback != null && !pendingFallback.isDone()) return;
+
+            pendingFallback = fallback.submit(new Runnable() {
+
+                public void run() {
+
+                    final boolean changed = localSolution();
+                    period.updated(System.currentTimeMillis(), changed);
+                }
+            });
+        }
+
+        /**
+         * Replace solution by the one computed locally
+         *
+         * @return true if solution has changed
+         */
+        private boolean localSolution() {
+
             try {
 
-                currentAssignments = fetchSolution(scheduler);
-                sendQueue(scheduler);
+                final PublishedSolution basis = published.get();
+                final NodeAssignments oldSolution = basis.assignments();
+                final QueueState state = translator.capture(
+                        stateProvider(), oldSolution == null ? NodeAssignments.empty() : oldSolution
+                );
+                Metrics.get().increment("local solutions");
+                return publishLocal(basis, translator.assignLocally(state));
+            } catch (RuntimeException ex) {
+
+                LOGGER.log(Level.WARNING, "Local assignment failed", ex);
+                return false;
+            }
+        }
+
+        /**
+         * Receive pushed solutions from new planner if it supports that
+         */
+        /*package*/ synchronized void plannerStarted(final Planner restScheduler) {
+
+            if (listener != null) {
+
+                listener.stop();
+                listener = null;
+            }
+
+            if (!(restScheduler instanceof PushPlanner)) return;
+            if (!restScheduler.capabilities().contains(RestScheduler.SOLUTION_PUSH)) return;
+
+            listener = new SolutionListener((PushPlanner) restScheduler, this);
+            listener.start();
+        }
+
+        /**
+         * New solution was delivered by remote planner
+         *
+         * @return true if published solution has changed
+         */
+        /*package*/ boolean solutionPushed(final NodeAssignments solution) {
+
+            // Solution is fetched once planner recovers
+            if (breaker.isOpen()) return false;
+
+            if (!publish(solution)) return false;
+
+            // Planner knows its own solution, no need to send the queue
+            period.wake();
+            return true;
+        }
+
+        /**
+         * @return true if queue, nodes or solution have changed
+         */
+        private boolean update(final Planner restScheduler) {
+
+            final long now = System.currentTimeMillis();
+            // Planner might have lost the queue while it was bypassed
+            final boolean probe = breaker.isOpen();
+            final boolean reconcile = probe
+                    || reconciliationRequested
+                    || now - lastReconciliation >= RECONCILIATION_PERIOD
+                    // Changes can not be sent on their own, whole queue contains them
+                    || (!changes.isEmpty() && !restScheduler.acceptsChanges())
+            ;
+            reconciliationRequested = false;
+
+            // Whole queue sent during reconciliation contains the changes
+            final QueueChanges.Batch batch = changes.drain();
+
+            boolean changed = false;
+            try {
+
+                // Queue is pushed while solution is being fetched
+                final Future<Boolean> queued;
+                if (reconcile) {
+
+                    queued = sendQueue(restScheduler);
+                } else if (!batch.isEmpty()) {
+
+                    queued = sendChanges(restScheduler, batch);
+                } else {
+
+                    queued = null;
+                }
+
+                final SolutionListener listener = this.listener;
+                if (probe || listener == null || !listener.isConnected()) {
+
+                    // Poll unless solutions are pushed, remote solution replaces local one after recovery
+                    changed = fetchSolution(restScheduler);
+                }
+
+                if (reconcile) {
+
+                    // Sent unless unchanged
+                    changed |= await(queued);
+                    lastReconciliation = now;
+                } else if (queued != null) {
+
+                    changed = true;
+                    if (!await(queued)) {
+
+                        // Changes can not be sent on their own
+                        await(sendQueue(restScheduler));
+                        lastReconciliation = now;
+                    }
+                }
+
+                final long finished = System.currentTimeMillis();
+                if (breaker.succeeded(finished, finished - now)) {
+
+                    final Future<?> pendingFallback = this.pendingFallback;
+                    if (pendingFallback != null) {
+
+                        pendingFallback.cancel(false);
+                    }
+                }
             } catch (SchedulerException ex) {
 
                 // Rest Scheduler's sanity has been questioned.
                 // Dispatcher will find this out sooner or later.
+                reconciliationRequested = true;
+                breaker.failed(System.currentTimeMillis());
+            } catch (InterruptedException ex) {
+
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException ex) {
+
+                LOGGER.log(Level.WARNING, "Remote planner update failed", ex);
+                reconciliationRequested = true;
+                breaker.failed(System.currentTimeMillis());
             }
+
+            return changed;
         }
 
         private PluginScheduler getScheduler() {
@@ -196,33 +906,110 @@ public class PluginScheduler extends Scheduler {
             return (PluginScheduler) scheduler;
         }
 
-        private NodeAssignments fetchSolution(final PluginScheduler scheduler) throws SchedulerException {
+        /**
+         * @return true if solution has changed
+         */
+        private boolean fetchSolution(
+                final Planner restScheduler
+        ) throws SchedulerException, InterruptedException {
+
+            return publish(await(restScheduler.solutionAsync()));
+        }
+
+        /**
+         * Hand solution to the dispatcher under new version unless it is already there
+         *
+         * @return true if solution has changed
+         */
+        private boolean publish(final NodeAssignments solution) {
+
+            PublishedSolution current;
+            boolean changed;
+            do {
+
+                current = published.get();
+                changed = current.differs(solution);
+
+                // Replace local solution even if the same so local ones in progress are dropped
+                if (!changed && !current.isLocal()) return false;
+            } while (!published.compareAndSet(current, changed
+                    ? current.next(solution, System.currentTimeMillis(), false)
+                    : current.confirmed(System.currentTimeMillis())
+            ));
+
+            if (changed) {
+
+                solutionChanged();
+            }
+            return changed;
+        }
 
-            final NodeAssignments oldSolution = plugin.currentSolution();
+        /**
+         * Publish local solution unless remote one was published since it was computed from basis
+         *
+         * @return true if solution has changed
+         */
+        /*package*/ boolean publishLocal(final PublishedSolution basis, final NodeAssignments solution) {
 
-            final NodeAssignments solution = PluginScheduler.restScheduler.solution();
+            if (!breaker.isOpen() || !basis.differs(solution)) return false;
 
-            if (queueUpdateNeeded(oldSolution, solution)) {
+            final boolean published = this.published.compareAndSet(
+                    basis, basis.next(solution, System.currentTimeMillis(), true)
+            );
+            if (!published) {
 
-                Jenkins.getInstance().getQueue().scheduleMaintenance();
+                Metrics.get().increment("local solutions dropped");
+                return false;
             }
 
-            return solution;
+            solutionChanged();
+            return true;
+        }
+
+        private void solutionChanged() {
+
+            Metrics.get().increment("solution changes");
+            Jenkins.getInstance().getQueue().scheduleMaintenance();
+        }
+
+        /**
+         * Latest solution, never blocks
+         */
+        public PublishedSolution published() {
+
+            return published.get();
+        }
+
+        /**
+         * Capture the queue on this thread, it is encoded and sent by planner's one
+         */
+        private Future<Boolean> sendQueue(final Planner restScheduler) {
+
+            final QueueState state = restScheduler.capture(stateProvider(), plugin.currentSolution());
+            return restScheduler.queueAsync(state);
         }
 
-        private boolean queueUpdateNeeded(
-                final NodeAssignments oldSolution, final NodeAssignments newSolution
+        private Future<Boolean> sendChanges(
+                final Planner restScheduler, final QueueChanges.Batch batch
         ) {
 
-            return oldSolution == null
-                    ? newSolution != null
-                    : !oldSolution.equals(newSolution)
-            ;
+            return restScheduler.queueChangesAsync(stateProvider(), plugin.currentSolution(), batch);
         }
 
-        private boolean sendQueue(final PluginScheduler scheduler) throws SchedulerException {
+        private static <T> T await(final Future<T> future) throws SchedulerException, InterruptedException {
+
+            try {
+
+                return future.get();
+            } catch (ExecutionException ex) {
 
-            return PluginScheduler.restScheduler.queue(stateProvider(), plugin.currentSolution());
+                final Throwable cause = ex.getCause();
+                if (cause instanceof SchedulerException) throw (SchedulerException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+
+                throw new SchedulerException(cause);
+            }
         }
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+
+/**
+ * Solution as handed to the dispatcher
+ *
+ * Instances are immutable and replaced as a whole so readers never see
+ * assignments of one solution with version of another. Version grows by one
+ * every time different assignments are published. Solutions computed locally
+ * while remote planner is unavailable are marked as such.
+ *
+ * @author ogondza
+ */
+public final class PublishedSolution {
+
+    /*package*/ static final PublishedSolution NONE = new PublishedSolution(null, 0, 0, false);
+
+    private final NodeAssignments assignments;
+    private final long version;
+    private final long timestamp;
+    private final boolean local;
+
+    private PublishedSolution(
+            final NodeAssignments assignments, final long version, final long timestamp, final boolean local
+    ) {
+
+        this.assignments = assignments;
+        this.version = version;
+        this.timestamp = timestamp;
+        this.local = local;
+    }
+
+    /**
+     * @return null until first solution is published
+     */
+    public NodeAssignments assignments() {
+
+        return assignments;
+    }
+
+    /**
+     * @return 0 until first solution is published
+     */
+    public long version() {
+
+        return version;
+    }
+
+    /**
+     * Milliseconds since epoch the solution was published at
+     */
+    public long timestamp() {
+
+        return timestamp;
+    }
+
+    /**
+     * Computed locally rather than by remote planner
+     */
+    public boolean isLocal() {
+
+        return local;
+    }
+
+    /**
+     * @return true if assignments differ from the published ones
+     */
+    /*package*/ boolean differs(final NodeAssignments assignments) {
+
+        return this.assignments == null
+                ? assignments != null
+                : !this.assignments.equals(assignments)
+        ;
+    }
+
+    /*package*/ PublishedSolution next(
+            final NodeAssignments assignments, final long timestamp, final boolean local
+    ) {
+
+        return new PublishedSolution(assignments, version + 1, timestamp, local);
+    }
+
+    /**
+     * Same assignments confirmed by remote planner
+     */
+    /*package*/ PublishedSolution confirmed(final long timestamp) {
+
+        return new PublishedSolution(assignments, version, timestamp, false);
+    }
+
+    @Override
+    public String toString() {
+
+        return String.format("%s solution #%d: %s", local ? "Local" : "Remote", version, assignments);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Queue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Queue and node changes reported by Jenkins events since last drained
+ *
+ * Repeated events for the same item or node are coalesced, item that entered
+ * and left the queue is reported as removed only.
+ *
+ * @author ogondza
+ */
+/*package*/ final class QueueChanges {
+
+    private Map<Integer, Queue.BuildableItem> changed = new LinkedHashMap<Integer, Queue.BuildableItem>();
+    private Set<Integer> removed = new LinkedHashSet<Integer>();
+    private Map<Node, Node> nodes = new IdentityHashMap<Node, Node>();
+
+    /**
+     * Times to check whether executor was released before reporting the node anyway
+     */
+    /*package*/ static final int RELEASE_ATTEMPTS = 10;
+
+    /**
+     * Nodes with executors being released, to report again once released
+     */
+    private final Map<Node, Release> releasing = new IdentityHashMap<Node, Release>();
+
+    /**
+     * @return true if this is the first change since last drained
+     */
+    /*package*/ synchronized boolean itemChanged(final Queue.BuildableItem item) {
+
+        final boolean first = isEmpty();
+        removed.remove(item.id);
+        changed.put(item.id, item);
+        return first;
+    }
+
+    /**
+     * @return true if this is the first change since last drained
+     */
+    /*package*/ synchronized boolean itemRemoved(final int id) {
+
+        final boolean first = isEmpty();
+        changed.remove(id);
+        removed.add(id);
+        return first;
+    }
+
+    /**
+     * @return true if this is the first change since last drained
+     */
+    /*package*/ synchronized boolean nodeChanged(final Node node) {
+
+        final boolean first = isEmpty();
+        nodes.put(node, node);
+        return first;
+    }
+
+    /**
+     * Build completed but its executor is still busy
+     *
+     * Node is reported now and once more when its idle executor count changes.
+     *
+     * @return true if this is the first change since last drained
+     * @see #collectReleased()
+     */
+    /*package*/ synchronized boolean executorReleasing(final Node node) {
+
+        if (!releasing.containsKey(node)) {
+
+            releasing.put(node, new Release(idleExecutors(node)));
+        }
+        return nodeChanged(node);
+    }
+
+    /**
+     * Report nodes that have released executors since, or were checked too many times
+     *
+     * @return true if some nodes are still releasing executors
+     */
+    /*package*/ synchronized boolean collectReleased() {
+
+        final Iterator<Map.Entry<Node, Release>> it = releasing.entrySet().iterator();
+        while (it.hasNext()) {
+
+            final Map.Entry<Node, Release> entry = it.next();
+            final Node node = entry.getKey();
+            final Release release = entry.getValue();
+
+            release.attempts++;
+            if (idleExecutors(node) != release.idle || release.attempts >= RELEASE_ATTEMPTS) {
+
+                nodes.put(node, node);
+                it.remove();
+            }
+        }
+
+        return !releasing.isEmpty();
+    }
+
+    private static int idleExecutors(final Node node) {
+
+        final Computer computer = node.toComputer();
+        return computer == null ? -1 : computer.countIdle();
+    }
+
+    /*package*/ synchronized boolean isEmpty() {
+
+        return changed.isEmpty() && removed.isEmpty() && nodes.isEmpty();
+    }
+
+    /**
+     * Take changes collected so far, nodes with executors being released are kept
+     */
+    /*package*/ synchronized Batch drain() {
+
+        final Batch batch = new Batch(changed.values(), removed, nodes.keySet());
+
+        changed = new LinkedHashMap<Integer, Queue.BuildableItem>();
+        removed = new LinkedHashSet<Integer>();
+        nodes = new IdentityHashMap<Node, Node>();
+
+        return batch;
+    }
+
+    /**
+     * Idle executors seen when build completed
+     */
+    private static final class Release {
+
+        private final int idle;
+        private int attempts = 0;
+
+        private Release(final int idle) {
+
+            this.idle = idle;
+        }
+    }
+
+    /*package*/ static final class Batch {
+
+        private final Collection<Queue.BuildableItem> changed;
+        private final Collection<Integer> removed;
+        private final Collection<Node> nodes;
+
+        private Batch(
+                final Collection<Queue.BuildableItem> changed,
+                final Collection<Integer> removed,
+                final Collection<Node> nodes
+        ) {
+
+            this.changed = Collections.unmodifiableList(new ArrayList<Queue.BuildableItem>(changed));
+            this.removed = Collections.unmodifiableList(new ArrayList<Integer>(removed));
+            this.nodes = Collections.unmodifiableList(new ArrayList<Node>(nodes));
+        }
+
+        /*package*/ Collection<Queue.BuildableItem> changed() {
+
+            return changed;
+        }
+
+        /*package*/ Collection<Integer> removed() {
+
+            return removed;
+        }
+
+        /*package*/ Collection<Node> nodes() {
+
+            return nodes;
+        }
+
+        /*package*/ boolean isEmpty() {
+
+            return changed.isEmpty() && removed.isEmpty() && nodes.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,609 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import hudson.util.DaemonThreadFactory;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+import org.jenkinsci.plugins.externalscheduler.StateProvider;
+import org.jenkinsci.plugins.restservicescheduler.json.QueueState;
+import org.jenkinsci.plugins.restservicescheduler.json.Translator;
+
+/**
+ * Pool of equivalent remote planners
+ *
+ * Queue is sent to all healthy replicas so any of them can serve the
+ * solution. Solution is requested from the healthy replica that responds the
+ * fastest, the next one is asked in case it fails. Hedged solution request
+ * is sent to the next replica as well once the first one takes longer than
+ * the 95th percentile of solution requests and the first answer wins.
+ *
+ * Replicas are probed periodically so failed ones join again once they
+ * recover.
+ *
+ * @author ogondza
+ */
+public final class ReplicatedPlanner implements Planner {
+
+    private final static Logger LOGGER = Logger.getLogger(
+            ReplicatedPlanner.class.getName()
+    );
+
+    private static final Translator serializator = new Translator();
+
+    private static final Metrics metrics = Metrics.get();
+
+    /**
+     * Requests needed before the percentile is trusted for hedging
+     */
+    private static final long HEDGE_MIN_SAMPLES = 20;
+
+    /**
+     * Runs asynchronous requests
+     */
+    private static final ExecutorService requestExecutor = Executors.newCachedThreadPool(
+            new DaemonThreadFactory()
+    );
+
+    private final List<Replica> replicas;
+    private final boolean hedging;
+
+    /**
+     * Solution download latency of this planner, kept apart from
+     * {@link Metrics} so resetting the statistics does not disable hedging
+     */
+    private final Metrics.Histogram solutionLatency = new Metrics.Histogram("solution download", "ms");
+    private final ScheduledExecutorService prober;
+
+    /**
+     * @param replicas Planners holding the same queue
+     * @param hedging Send hedged solution requests
+     * @param probePeriod Milliseconds between health probes
+     */
+    public ReplicatedPlanner(
+            final List<RestScheduler> replicas, final boolean hedging, final long probePeriod
+    ) {
+
+        if (replicas == null || replicas.isEmpty()) throw new IllegalArgumentException("No replicas provided");
+        if (probePeriod <= 0) throw new IllegalArgumentException("Probe period has to be positive: " + probePeriod);
+
+        final List<Replica> pool = new ArrayList<Replica>(replicas.size());
+        for (final RestScheduler scheduler: replicas) {
+
+            pool.add(new Replica(scheduler));
+        }
+
+        this.replicas = Collections.unmodifiableList(pool);
+        this.hedging = hedging;
+
+        this.prober = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+        prober.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+
+                probe();
+            }
+        }, probePeriod, probePeriod, TimeUnit.MILLISECONDS);
+    }
+
+    public URL remoteUrl() {
+
+        return replicas.get(0).scheduler.remoteUrl();
+    }
+
+    /**
+     * Features supported by all replicas, solution push excluded
+     */
+    public Set<String> capabilities() {
+
+        final Set<String> capabilities = new HashSet<String>(replicas.get(0).scheduler.capabilities());
+        for (final Replica replica: replicas) {
+
+            capabilities.retainAll(replica.scheduler.capabilities());
+        }
+
+        capabilities.remove(RestScheduler.SOLUTION_PUSH);
+        return Collections.unmodifiableSet(capabilities);
+    }
+
+    public long sentUpdates() {
+
+        long sent = 0;
+        for (final Replica replica: replicas) {
+
+            sent += replica.scheduler.sentUpdates();
+        }
+
+        return sent;
+    }
+
+    public long skippedUpdates() {
+
+        long skipped = 0;
+        for (final Replica replica: replicas) {
+
+            skipped += replica.scheduler.skippedUpdates();
+        }
+
+        return skipped;
+    }
+
+    /**
+     * Send queue to all healthy replicas
+     *
+     * @return false in case no replica needed an update
+     * @throws SchedulerException If no replica accepted the queue
+     */
+    public boolean queue(
+            final StateProvider stateProvider, final NodeAssignments assignments
+    ) throws SchedulerException {
+
+        return queue(capture(stateProvider, assignments));
+    }
+
+    public QueueState capture(final StateProvider stateProvider, final NodeAssignments assignments) {
+
+        if (assignments == null) throw new IllegalArgumentException("No assignments");
+        if (stateProvider == null) throw new IllegalArgumentException("No stateProvider");
+
+        final long start = System.nanoTime();
+        final QueueState state = serializator.capture(stateProvider, assignments);
+        metrics.histogram("snapshot capture", "ms").record(Metrics.millisSince(start));
+        return state;
+    }
+
+    /**
+     * Send captured state to all healthy replicas
+     *
+     * @return false in case no replica needed an update
+     * @throws SchedulerException If no replica accepted the queue
+     */
+    public synchronized boolean queue(final QueueState state) throws SchedulerException {
+
+        final List<Replica> targets = healthy();
+        final List<Future<Boolean>> sent = new ArrayList<Future<Boolean>>(targets.size());
+        for (final Replica replica: targets) {
+
+            sent.add(replica.scheduler.queueAsync(state));
+        }
+
+        return anyChanged(targets, sent);
+    }
+
+    public Future<Boolean> queueAsync(final StateProvider stateProvider, final NodeAssignments assignments) {
+
+        return requestExecutor.submit(new Callable<Boolean>() {
+
+            public Boolean call() throws SchedulerException {
+
+                return queue(stateProvider, assignments);
+            }
+        });
+    }
+
+    public Future<Boolean> queueAsync(final QueueState state) {
+
+        return requestExecutor.submit(new Callable<Boolean>() {
+
+            public Boolean call() throws SchedulerException {
+
+                return queue(state);
+            }
+        });
+    }
+
+    /**
+     * All replicas the changes would be sent to accept them
+     */
+    public boolean acceptsChanges() {
+
+        boolean anyHealthy = false;
+        for (final Replica replica: replicas) {
+
+            anyHealthy |= replica.healthy;
+        }
+
+        for (final Replica replica: replicas) {
+
+            if ((replica.healthy || !anyHealthy) && !replica.scheduler.acceptsChanges()) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Send changes to all healthy replicas
+     *
+     * @return Future of false if some replica needs the whole queue
+     */
+    public Future<Boolean> queueChangesAsync(
+            final StateProvider stateProvider,
+            final NodeAssignments assignments,
+            final QueueChanges.Batch changes
+    ) {
+
+        return requestExecutor.submit(new Callable<Boolean>() {
+
+            public Boolean call() throws SchedulerException {
+
+                final List<Replica> targets = healthy();
+                final List<Future<Boolean>> sent = new ArrayList<Future<Boolean>>(targets.size());
+                for (final Replica replica: targets) {
+
+                    sent.add(replica.scheduler.queueChangesAsync(stateProvider, assignments, changes));
+                }
+
+                boolean all = true;
+                for (int i = 0; i < sent.size(); i++) {
+
+                    all &= await(targets.get(i), sent.get(i));
+                }
+
+                return all;
+            }
+        });
+    }
+
+    /**
+     * Solution of the fastest healthy replica, failing over to the others
+     *
+     * @throws SchedulerException If no replica provided the solution
+     */
+    public NodeAssignments solution() throws SchedulerException {
+
+        final List<Replica> ranked = ranked();
+        final long hedgeDelay = hedgeDelay();
+
+        final CompletionService<NodeAssignments> completion = new ExecutorCompletionService<NodeAssignments>(
+                requestExecutor
+        );
+        final List<Future<NodeAssignments>> requests = new ArrayList<Future<NodeAssignments>>(ranked.size());
+
+        requests.add(completion.submit(solutionCall(ranked.get(0))));
+        int next = 1;
+        int pending = 1;
+        Throwable failure = null;
+        try {
+
+            while (pending > 0) {
+
+                final Future<NodeAssignments> done = hedgeDelay >= 0 && next < ranked.size()
+                        ? completion.poll(hedgeDelay, TimeUnit.MILLISECONDS)
+                        : completion.take()
+                ;
+
+                if (done == null) {
+
+                    // Slower than usual, ask another replica as well
+                    metrics.increment("hedged requests");
+                    requests.add(completion.submit(solutionCall(ranked.get(next++))));
+                    pending++;
+                    continue;
+                }
+
+                pending--;
+                try {
+
+                    return done.get();
+                } catch (ExecutionException ex) {
+
+                    failure = ex.getCause();
+                    if (pending == 0 && next < ranked.size()) {
+
+                        metrics.increment("failovers");
+                        requests.add(completion.submit(solutionCall(ranked.get(next++))));
+                        pending++;
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+
+            Thread.currentThread().interrupt();
+            throw new SchedulerException(ex);
+        } finally {
+
+            for (final Future<NodeAssignments> request: requests) {
+
+                request.cancel(true);
+            }
+        }
+
+        if (failure instanceof SchedulerException) throw (SchedulerException) failure;
+
+        throw new SchedulerException("No replica provided solution", failure);
+    }
+
+    public Future<NodeAssignments> solutionAsync() {
+
+        return requestExecutor.submit(new Callable<NodeAssignments>() {
+
+            public NodeAssignments call() throws SchedulerException {
+
+                return solution();
+            }
+        });
+    }
+
+    public ReplicatedPlanner stop() throws SchedulerException {
+
+        prober.shutdownNow();
+
+        SchedulerException failure = null;
+        for (final Replica replica: replicas) {
+
+            try {
+
+                replica.scheduler.stop();
+            } catch (SchedulerException ex) {
+
+                LOGGER.info("Failed stopping remote planner " + replica.scheduler.remoteUrl());
+                failure = ex;
+            }
+        }
+
+        if (failure != null) throw failure;
+
+        return this;
+    }
+
+    /**
+     * Milliseconds to wait before sending hedged request, negative not to hedge
+     */
+    private long hedgeDelay() {
+
+        if (!hedging) return -1;
+
+        if (solutionLatency.getCount() < HEDGE_MIN_SAMPLES) return -1;
+
+        return solutionLatency.percentile(0.95);
+    }
+
+    private Callable<NodeAssignments> solutionCall(final Replica replica) {
+
+        return new Callable<NodeAssignments>() {
+
+            public NodeAssignments call() throws SchedulerException {
+
+                final long start = System.nanoTime();
+                try {
+
+                    final NodeAssignments solution = replica.scheduler.solution();
+                    final long millis = Metrics.millisSince(start);
+                    solutionLatency.record(millis);
+                    replica.succeeded(millis);
+                    return solution;
+                } catch (IllegalStateException ex) {
+
+                    // Replica did not get the queue yet, it has not failed
+                    throw new SchedulerException(ex);
+                } catch (SchedulerException ex) {
+
+                    replica.failed();
+                    throw ex;
+                } catch (RuntimeException ex) {
+
+                    replica.failed();
+                    throw ex;
+                }
+            }
+        };
+    }
+
+    /**
+     * Probe all replicas so the failed ones can join again
+     */
+    /*package*/ void probe() {
+
+        for (final Replica replica: replicas) {
+
+            final long start = System.nanoTime();
+            try {
+
+                replica.scheduler.ping();
+                replica.succeeded(Metrics.millisSince(start));
+            } catch (SchedulerException ex) {
+
+                replica.failed();
+            } catch (RuntimeException ex) {
+
+                replica.failed();
+            }
+        }
+    }
+
+    /**
+     * Replicas to send the queue to, all of them if none is healthy
+     *
+     * Replicas left out miss the update, so they get the whole queue next time.
+     */
+    private List<Replica> healthy() {
+
+        final List<Replica> healthy = new ArrayList<Replica>(replicas.size());
+        for (final Replica replica: replicas) {
+
+            if (replica.healthy) {
+
+                healthy.add(replica);
+            }
+        }
+
+        if (healthy.isEmpty()) return replicas;
+
+        for (final Replica replica: replicas) {
+
+            if (!replica.healthy) {
+
+                replica.missedUpdate();
+            }
+        }
+
+        return healthy;
+    }
+
+    /**
+     * Healthy replicas first, up to date ones first, the fastest first
+     */
+    /*package*/ List<Replica> ranked() {
+
+        final List<Replica> ranked = new ArrayList<Replica>(replicas);
+        Collections.sort(ranked, HEALTHIEST_FIRST);
+        return ranked;
+    }
+
+    private boolean anyChanged(
+            final List<Replica> targets, final List<Future<Boolean>> sent
+    ) throws SchedulerException {
+
+        boolean changed = false;
+        boolean accepted = false;
+        SchedulerException failure = null;
+        for (int i = 0; i < sent.size(); i++) {
+
+            try {
+
+                final Boolean replicaChanged = await(targets.get(i), sent.get(i));
+                changed |= replicaChanged;
+                accepted = true;
+                targets.get(i).stale = false;
+            } catch (SchedulerException ex) {
+
+                failure = ex;
+            }
+        }
+
+        if (!accepted) throw failure;
+
+        return changed;
+    }
+
+    private static <T> T await(final Replica replica, final Future<T> future) throws SchedulerException {
+
+        try {
+
+            return future.get();
+        } catch (ExecutionException ex) {
+
+            replica.failed();
+            final Throwable cause = ex.getCause();
+            if (cause instanceof SchedulerException) throw (SchedulerException) cause;
+
+            throw new SchedulerException(cause);
+        } catch (InterruptedException ex) {
+
+            Thread.currentThread().interrupt();
+            throw new SchedulerException(ex);
+        }
+    }
+
+    private static final Comparator<Replica> HEALTHIEST_FIRST = new Comparator<Replica>() {
+
+        public int compare(final Replica lhs, final Replica rhs) {
+
+            if (lhs.healthy != rhs.healthy) return lhs.healthy ? -1 : 1;
+            if (lhs.stale != rhs.stale) return lhs.stale ? 1 : -1;
+
+            final long ll = lhs.latency;
+            final long rl = rhs.latency;
+            return ll == rl ? 0 : (ll < rl ? -1 : 1);
+        }
+    };
+
+    /*package*/ static final class Replica {
+
+        /*package*/ final RestScheduler scheduler;
+
+        private volatile boolean healthy = true;
+
+        /**
+         * Missed some update and was not sent the whole queue since
+         */
+        private volatile boolean stale = false;
+
+        /**
+         * Moving average of response time in milliseconds
+         */
+        private volatile long latency = 0;
+
+        private Replica(final RestScheduler scheduler) {
+
+            this.scheduler = scheduler;
+        }
+
+        /*package*/ boolean isHealthy() {
+
+            return healthy;
+        }
+
+        /*package*/ boolean isStale() {
+
+            return stale;
+        }
+
+        private void missedUpdate() {
+
+            stale = true;
+            scheduler.forgetSent();
+        }
+
+        private void succeeded(final long millis) {
+
+            if (!healthy) {
+
+                LOGGER.info("Remote planner replica " + scheduler.remoteUrl() + " recovered");
+            }
+
+            healthy = true;
+            latency = (3 * latency + millis) / 4;
+        }
+
+        private void failed() {
+
+            if (healthy) {
+
+                LOGGER.warning("Remote planner replica " + scheduler.remoteUrl() + " failed");
+                metrics.increment("replica failures");
+            }
+
+            healthy = false;
+        }
+    }
+}
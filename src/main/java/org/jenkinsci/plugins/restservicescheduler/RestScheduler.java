@@ -23,30 +23,53 @@
  */
 package org.jenkinsci.plugins.restservicescheduler;
 
+import hudson.util.DaemonThreadFactory;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
 import org.jenkinsci.plugins.externalscheduler.StateProvider;
+import org.jenkinsci.plugins.restservicescheduler.json.Codec;
+import org.jenkinsci.plugins.restservicescheduler.json.QueueState;
 import org.jenkinsci.plugins.restservicescheduler.json.Translator;
 import org.kohsuke.stapler.DataBoundConstructor;
 
+import com.google.gson.JsonParseException;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.filter.GZIPContentEncodingFilter;
 
 /**
  * Planner implementation that work as a remote proxy for REST API planner
  *
  * @author ogondza
  */
-public final class RestScheduler {
+public final class RestScheduler implements PushPlanner {
 
     private final static Logger LOGGER = Logger.getLogger(
             RestScheduler.class.getName()
@@ -55,8 +78,51 @@ public final class RestScheduler {
     private static final String PREFIX = "rest/hudsonQueue";
     private static final String TYPE = MediaType.APPLICATION_JSON;
 
+    /**
+     * Planner accepts nodes listed once and referred by index from queue items
+     */
+    /*package*/ static final String NODE_DICTIONARY = "node-dictionary";
+
+    /**
+     * Planner holds long-polling request until it finds better solution
+     */
+    /*package*/ static final String SOLUTION_PUSH = "solution-push";
+
+    private static final int DEFAULT_WATCH_TIMEOUT = 30 * 1000;
+
+    /**
+     * Chunk size of streamed requests in bytes
+     */
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * Planner accepts gzip compressed requests
+     */
+    /*package*/ static final String GZIP = "gzip";
+
+    /**
+     * Planner reads and writes CBOR messages
+     */
+    /*package*/ static final String CBOR = "cbor";
+
     private static final Translator serializator = new Translator();
 
+    private static final Metrics metrics = Metrics.get();
+
+    private static final Tracer tracer = Tracer.get();
+
+    /**
+     * Runs asynchronous requests
+     */
+    private static final ExecutorService requestExecutor = Executors.newCachedThreadPool(
+            new DaemonThreadFactory()
+    );
+
+    /**
+     * Resend unchanged queue after this period so restarted planner catches up
+     */
+    private static final long UNCHANGED_RESEND_PERIOD = 60 * 1000;
+
     private enum Status {
         RUNNING, STOPPED;
 
@@ -69,23 +135,107 @@ public final class RestScheduler {
     private final Client client;
     private final URL serviceDestination;
     private final String plannerName;
-    private Status status = Status.STOPPED;
+    private final Set<String> capabilities;
+
+    /**
+     * Format of messages sent to planner, responses are read in format they declare
+     */
+    private final Codec codec;
+
+    private volatile Status status = Status.STOPPED;
+
+    /**
+     * Send only the difference from {@link #lastSent} to planner
+     */
+    private boolean deltaUpdates;
+
+    /**
+     * State planner was last successfully updated with or null if unknown
+     */
+    private volatile QueueState lastSent;
+    private long lastSentTimestamp;
+
+    /**
+     * Uncompressed request size in bytes from which requests are compressed,
+     * negative to never compress
+     */
+    private volatile int compressionThreshold;
+    private final AtomicLong lastQueueSize = new AtomicLong();
+    private final AtomicLong lastDeltaSize = new AtomicLong();
+
+    private volatile Tagged<NodeAssignments> cachedSolution;
+    private volatile Tagged<Score> cachedScore;
+
+    private final AtomicLong sentUpdates = new AtomicLong();
+    private final AtomicLong skippedUpdates = new AtomicLong();
+
+    /**
+     * Create client for talking to planners
+     *
+     * Connections are kept alive and reused by the JDK HTTP client as long as
+     * the responses are consumed or closed. Requests are sent chunked so the
+     * JDK HTTP client streams the entity instead of buffering all of it to
+     * compute the content length.
+     *
+     * @param connectTimeout Seconds
+     * @param readTimeout Seconds
+     * @param compression Accept gzip compressed responses and compress requests
+     *      sent with <tt>Content-Encoding: gzip</tt> header
+     */
+    public static Client createClient(final int connectTimeout, final int readTimeout, final boolean compression) {
+
+        final Client client = Client.create();
+        client.setConnectTimeout(connectTimeout * 1000);
+        client.setReadTimeout(readTimeout * 1000);
+        client.getProperties().put(ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE, CHUNK_SIZE);
+
+        if (compression) {
+
+            client.addFilter(new GZIPContentEncodingFilter(false));
+        }
+
+        return client;
+    }
 
     @DataBoundConstructor
     public RestScheduler(final URL serviceDestination) throws SchedulerException {
 
-        this(serviceDestination, Client.create());
+        this(serviceDestination, createClient(
+                PluginScheduler.DEFAULT_CONNECT_TIMEOUT, PluginScheduler.DEFAULT_READ_TIMEOUT, false
+        ));
     }
 
     public RestScheduler(final URL serviceDestination, final Client client) throws SchedulerException {
 
+        this(serviceDestination, client, false, -1);
+    }
+
+    /**
+     * @param compressionThreshold Uncompressed size of request in bytes from
+     *      which requests are compressed in case planner supports it, negative
+     *      to never compress. Client needs to be created with compression.
+     * @see #createClient(int, int, boolean)
+     */
+    public RestScheduler(
+            final URL serviceDestination,
+            final Client client,
+            final boolean deltaUpdates,
+            final int compressionThreshold
+    ) throws SchedulerException {
+
         if (serviceDestination == null) throw new IllegalArgumentException (
                 "No URL provided"
         );
 
         this.client = client;
         this.serviceDestination = serviceDestination;
-        this.plannerName = fetchPlannerName();
+        this.deltaUpdates = deltaUpdates;
+        this.compressionThreshold = compressionThreshold;
+
+        final String info = infoContent();
+        this.plannerName = plannerName(info);
+        this.capabilities = capabilities(info);
+        this.codec = capabilities.contains(CBOR) ? Codec.CBOR : Codec.JSON;
     }
 
     /**
@@ -93,11 +243,10 @@ public final class RestScheduler {
      * @return Application name
      * @throws SchedulerException When not an external scheduler
      */
-    private String fetchPlannerName() throws SchedulerException {
+    private String plannerName(final String info) throws SchedulerException {
 
-        final String info = infoContent();
         final Matcher matcher = Pattern
-                .compile("^info: (.*)$")
+                .compile("^info: (.*)$", Pattern.MULTILINE)
                 .matcher(info)
         ;
 
@@ -108,12 +257,66 @@ public final class RestScheduler {
         return matcher.group(1);
     }
 
+    /**
+     * Optional features advertised by planner on <tt>capabilities: </tt> line
+     */
+    private Set<String> capabilities(final String info) {
+
+        final Matcher matcher = Pattern
+                .compile("^capabilities: (.*)$", Pattern.MULTILINE)
+                .matcher(info)
+        ;
+
+        if (!matcher.find()) return Collections.emptySet();
+
+        final Set<String> capabilities = new HashSet<String>();
+        for (final String capability: matcher.group(1).trim().split("[\\s,]+")) {
+
+            if (capability.length() > 0) {
+
+                capabilities.add(capability);
+            }
+        }
+
+        return Collections.unmodifiableSet(capabilities);
+    }
+
     private String infoContent() throws SchedulerException {
 
-        return get(
-                getResource("/info").accept(MediaType.TEXT_PLAIN),
-                "Cannot get remote planner info for " + serviceDestination.toString()
-        );
+        final Tracer.Exchange trace = tracer.start("GET /info");
+        final long start = System.nanoTime();
+        try {
+
+            final String info = get(
+                    getResource("/info").accept(MediaType.TEXT_PLAIN),
+                    "Cannot get remote planner info for " + serviceDestination.toString()
+            );
+            if (trace != null) {
+
+                trace.outcome("200");
+                trace.response(info);
+            }
+            return info;
+        } catch (SchedulerException ex) {
+
+            metrics.error("GET /info");
+            if (trace != null) trace.failed(ex);
+            throw ex;
+        } finally {
+
+            metrics.latency("GET /info", start);
+            tracer.finish(trace, start);
+        }
+    }
+
+    /**
+     * Check the planner still responds as external scheduler
+     *
+     * @throws SchedulerException
+     */
+    public void ping() throws SchedulerException {
+
+        plannerName(infoContent());
     }
 
     /**
@@ -129,6 +332,14 @@ public final class RestScheduler {
         return plannerName;
     }
 
+    /**
+     * Features supported by remote planner
+     */
+    public Set<String> capabilities() {
+
+        return capabilities;
+    }
+
     /**
      * @throws SchedulerException
      */
@@ -136,10 +347,13 @@ public final class RestScheduler {
 
         assumeRunning();
 
-        LOGGER.info("Getting score");
-        return serializator.extractScore(
-                get(getResource("/score").accept(TYPE))
+        LOGGER.fine("Getting score");
+
+        final Tagged<Score> score = conditionalGet(
+                "GET /score", getResource("/score"), cachedScore, SCORE_READER
         );
+        cachedScore = score.tag == null ? null : score;
+        return score.value;
     }
 
     /**
@@ -150,10 +364,145 @@ public final class RestScheduler {
 
         assumeRunning();
 
-        LOGGER.info("Getting solution");
-        return serializator.extractAssignments(
-                get(getResource().accept(TYPE))
+        LOGGER.fine("Getting solution");
+
+        final Tagged<NodeAssignments> solution = conditionalGet(
+                "GET /", getResource(), cachedSolution, SOLUTION_READER
         );
+        cachedSolution = solution.tag == null ? null : solution;
+        return solution.value;
+    }
+
+    /**
+     * Wait for planner to find a solution better than the one delivered last time
+     *
+     * The request is held by planner until then or until its timeout expires.
+     * Entity tag of the solution delivered last time is sent so planner can
+     * tell which one is known; the same solution delivered again is reported
+     * as no solution found.
+     *
+     * @return New solution or null if none was found before the timeout
+     * @throws SchedulerException
+     */
+    public NodeAssignments awaitSolution() throws SchedulerException {
+
+        assumeRunning();
+
+        final Tracer.Exchange trace = tracer.start("GET /watch");
+        final long start = System.nanoTime();
+        try {
+
+            return watchSolution(trace);
+        } catch (SchedulerException ex) {
+
+            metrics.error("GET /watch");
+            if (trace != null) trace.failed(ex);
+            throw ex;
+        } finally {
+
+            metrics.latency("GET /watch", start);
+            tracer.finish(trace, start);
+        }
+    }
+
+    private NodeAssignments watchSolution(final Tracer.Exchange trace) throws SchedulerException {
+
+        final Tagged<NodeAssignments> cached = cachedSolution;
+
+        WebResource.Builder builder = getResource("/watch")
+                .queryParam("timeout", String.valueOf(watchTimeout()))
+                .accept(acceptedTypes())
+        ;
+        if (cached != null) {
+
+            builder = builder.header(HttpHeaders.IF_NONE_MATCH, cached.tag);
+        }
+
+        final ClientResponse response;
+        try {
+
+            response = builder.get(ClientResponse.class);
+        } catch (ClientHandlerException ex) {
+
+            throw new SchedulerException(ex);
+        }
+
+        try {
+
+            final int code = response.getStatus();
+            if (trace != null) trace.status(code);
+            if (code == 204 || code == 304) return null;
+            if (code >= 300) throw new SchedulerException(
+                    "Waiting for solution failed with status " + code
+            );
+
+            final Tagged<NodeAssignments> solution = new Tagged<NodeAssignments>(
+                    response.getHeaders().getFirst(HttpHeaders.ETAG),
+                    read(response, SOLUTION_READER, trace)
+            );
+
+            cachedSolution = solution.tag == null ? null : solution;
+
+            final boolean unchanged = cached != null && cached.value.equals(solution.value);
+            return unchanged ? null : solution.value;
+        } catch (ClientHandlerException ex) {
+
+            throw new SchedulerException(ex);
+        } finally {
+
+            response.close();
+        }
+    }
+
+    /**
+     * Milliseconds planner can hold the watch request, safely within read timeout
+     */
+    private int watchTimeout() {
+
+        final Map<String, Object> properties = client.getProperties();
+        final Object readTimeout = properties == null
+                ? null
+                : properties.get(ClientConfig.PROPERTY_READ_TIMEOUT)
+        ;
+
+        if (readTimeout instanceof Integer && (Integer) readTimeout > 0) {
+
+            return (Integer) readTimeout / 2;
+        }
+
+        return DEFAULT_WATCH_TIMEOUT;
+    }
+
+    /**
+     * Fetch solution without blocking the caller
+     *
+     * @see #solution()
+     */
+    public Future<NodeAssignments> solutionAsync() {
+
+        return requestExecutor.submit(new Callable<NodeAssignments>() {
+
+            public NodeAssignments call() throws SchedulerException {
+
+                return solution();
+            }
+        });
+    }
+
+    /**
+     * Prefer planner's format but accept JSON as well
+     */
+    private String[] acceptedTypes() {
+
+        return codec == Codec.JSON
+                ? new String[] { TYPE }
+                : new String[] { codec.mediaType(), TYPE }
+        ;
+    }
+
+    public boolean isRunning() {
+
+        return status.isRunning();
     }
 
     private void assumeRunning() {
@@ -163,11 +512,128 @@ public final class RestScheduler {
         );
     }
 
-    private String get(final WebResource.Builder builder) throws SchedulerException {
+    /**
+     * GET resource unless it has not changed since cached version
+     *
+     * @return Freshly read value or the cached one if still valid
+     */
+    private <T> Tagged<T> conditionalGet(
+            final String endpoint,
+            final WebResource resource,
+            final Tagged<T> cached,
+            final EntityReader<T> reader
+    ) throws SchedulerException {
+
+        final Tracer.Exchange trace = tracer.start(endpoint);
+        final long start = System.nanoTime();
+        try {
+
+            return conditionalGet(resource, cached, reader, trace);
+        } catch (SchedulerException ex) {
+
+            metrics.error(endpoint);
+            if (trace != null) trace.failed(ex);
+            throw ex;
+        } finally {
+
+            metrics.latency(endpoint, start);
+            tracer.finish(trace, start);
+        }
+    }
+
+    private <T> Tagged<T> conditionalGet(
+            final WebResource resource,
+            final Tagged<T> cached,
+            final EntityReader<T> reader,
+            final Tracer.Exchange trace
+    ) throws SchedulerException {
+
+        WebResource.Builder builder = resource.accept(acceptedTypes());
+        if (cached != null) {
+
+            builder = builder.header(HttpHeaders.IF_NONE_MATCH, cached.tag);
+        }
+
+        final ClientResponse response;
+        try {
+
+            response = builder.get(ClientResponse.class);
+        } catch (ClientHandlerException ex) {
+
+            throw new SchedulerException(ex);
+        }
+
+        try {
+
+            final int code = response.getStatus();
+            if (trace != null) trace.status(code);
+            if (code == 304 && cached != null) return cached;
+
+            if (code >= 300) throw new SchedulerException(
+                    "Request to " + resource.getURI() + " failed with status " + code
+            );
+
+            return new Tagged<T>(
+                    response.getHeaders().getFirst(HttpHeaders.ETAG),
+                    read(response, reader, trace)
+            );
+        } catch (ClientHandlerException ex) {
+
+            throw new SchedulerException(ex);
+        } finally {
+
+            response.close();
+        }
+    }
+
+    private <T> T read(
+            final ClientResponse response, final EntityReader<T> reader, final Tracer.Exchange trace
+    ) throws SchedulerException {
+
+        try {
+
+            final MediaType type = response.getType();
+            final Codec responseCodec = Codec.forMediaType(type == null ? null : type.toString());
+            InputStream entity = response.getEntityInputStream();
+            if (trace != null) {
+
+                trace.responseType(responseCodec.mediaType());
+                entity = trace.response(entity);
+            }
+            return reader.read(entity, responseCodec);
+        } catch (IOException ex) {
+
+            throw new SchedulerException(ex);
+        } catch (JsonParseException ex) {
+
+            throw new SchedulerException(ex);
+        }
+    }
+
+    /**
+     * Read value from response stream
+     */
+    private interface EntityReader<T> {
 
-        return get(builder, null);
+        T read(final InputStream entity, final Codec codec) throws IOException;
     }
 
+    private static final EntityReader<NodeAssignments> SOLUTION_READER = new EntityReader<NodeAssignments>() {
+
+        public NodeAssignments read(final InputStream entity, final Codec codec) throws IOException {
+
+            return serializator.extractAssignments(entity, codec);
+        }
+    };
+
+    private static final EntityReader<Score> SCORE_READER = new EntityReader<Score>() {
+
+        public Score read(final InputStream entity, final Codec codec) throws IOException {
+
+            return serializator.extractScore(entity, codec);
+        }
+    };
+
     private String get(final WebResource.Builder builder, final String errorMessage) throws SchedulerException {
 
         if (builder == null) throw new AssertionError("No builder provided");
@@ -175,9 +641,7 @@ public final class RestScheduler {
         Exception cause;
         try {
 
-            final String response = builder.get(String.class);
-            LOGGER.info(response);
-            return response;
+            return builder.get(String.class);
         } catch (UniformInterfaceException ex) {
 
             cause = ex;
@@ -191,37 +655,197 @@ public final class RestScheduler {
     }
 
     /**
+     * Number of queue updates sent to planner
+     */
+    public long sentUpdates() {
+
+        return sentUpdates.get();
+    }
+
+    /**
+     * Number of queue updates skipped since planner already had the state
+     */
+    public long skippedUpdates() {
+
+        return skippedUpdates.get();
+    }
+
+    /**
+     * @return false in case planner is already up to date and nothing was sent
      * @throws SchedulerException
      * @see org.jenkinsci.plugins.externalscheduler.Scheduler#queue(org.jenkinsci.plugins.externalscheduler.StateProvider, org.jenkinsci.plugins.externalscheduler.NodeAssignments)
      */
     public boolean queue(final StateProvider stateProvider, final NodeAssignments assignments) throws SchedulerException {
 
+        return queue(capture(stateProvider, assignments));
+    }
+
+    public QueueState capture(final StateProvider stateProvider, final NodeAssignments assignments) {
+
         if (assignments == null) throw new IllegalArgumentException("No assignments");
         if (stateProvider == null) throw new IllegalArgumentException("No stateProvider");
 
-        final WebResource.Builder resource = getResource().type(TYPE);
+        final long start = System.nanoTime();
+        final QueueState state = serializator.capture(stateProvider, assignments);
+        metrics.histogram("snapshot capture", "ms").record(Metrics.millisSince(start));
+        return state;
+    }
+
+    /**
+     * Send captured state
+     *
+     * @return false in case planner is already up to date and nothing was sent
+     * @throws SchedulerException
+     */
+    public synchronized boolean queue(final QueueState state) throws SchedulerException {
 
-        final String queueString = serializator.buildQuery(stateProvider, assignments);
+        if (state == null) throw new IllegalArgumentException("No state");
 
-        if (status.isRunning()) {
+        if (status.isRunning() && upToDate(state)) {
 
-            LOGGER.info("Sending queue update");
-            updateQueue(resource, queueString);
-        } else {
+            skippedUpdates.incrementAndGet();
+            metrics.increment("updates skipped");
+            return false;
+        }
+
+        // Planner state is unknown until the request succeeds
+        final QueueState previous = lastSent;
+        lastSent = null;
+
+        if (!status.isRunning()) {
 
             LOGGER.info("Starting remote planner");
-            sendQueue(resource, queueString);
+            metrics.increment("updates full");
+            sendQueue(state);
+        } else if (deltaUpdates && previous != null) {
+
+            LOGGER.fine("Sending queue delta");
+            metrics.increment("updates delta");
+            updateDelta(previous, state);
+        } else {
+
+            LOGGER.fine("Sending queue update");
+            metrics.increment("updates full");
+            updateQueue(state);
         }
 
+        lastSent = state;
+        lastSentTimestamp = System.currentTimeMillis();
+        sentUpdates.incrementAndGet();
         return true;
     }
 
-    private void sendQueue(final WebResource.Builder resource, final String queueString) throws SchedulerException {
+    /**
+     * Send changes reported by events since the queue was last sent
+     *
+     * Changes are applied to the state planner is known to hold and sent as
+     * delta. This is not possible unless the planner is running, accepts
+     * deltas and the whole queue was sent before.
+     *
+     * @return false if changes could not be sent and whole queue needs to be sent
+     * @throws SchedulerException
+     */
+    public synchronized boolean queueChanges(
+            final StateProvider stateProvider,
+            final NodeAssignments assignments,
+            final QueueChanges.Batch changes
+    ) throws SchedulerException {
+
+        if (!status.isRunning() || !deltaUpdates || lastSent == null) return false;
+
+        final long start = System.nanoTime();
+        final QueueState previous = lastSent;
+        final QueueState state = serializator.apply(
+                previous, stateProvider, assignments, changes.changed(), changes.removed(), changes.nodes()
+        );
+        metrics.histogram("snapshot changes", "ms").record(Metrics.millisSince(start));
+
+        if (state.equals(previous)) {
+
+            skippedUpdates.incrementAndGet();
+            metrics.increment("updates skipped");
+            return true;
+        }
+
+        lastSent = null;
+        LOGGER.fine("Sending queue changes");
+        metrics.increment("updates changes");
+        updateDelta(previous, state);
+
+        lastSent = state;
+        sentUpdates.incrementAndGet();
+        return true;
+    }
+
+    public boolean acceptsChanges() {
+
+        return deltaUpdates && status.isRunning() && lastSent != null;
+    }
+
+    /**
+     * Send queue changes without blocking the caller
+     *
+     * @see #queueChanges(StateProvider, NodeAssignments, QueueChanges.Batch)
+     */
+    public Future<Boolean> queueChangesAsync(
+            final StateProvider stateProvider,
+            final NodeAssignments assignments,
+            final QueueChanges.Batch changes
+    ) {
+
+        return requestExecutor.submit(new Callable<Boolean>() {
+
+            public Boolean call() throws SchedulerException {
+
+                return queueChanges(stateProvider, assignments, changes);
+            }
+        });
+    }
+
+    /**
+     * Send queue without blocking the caller
+     *
+     * @see #queue(StateProvider, NodeAssignments)
+     */
+    public Future<Boolean> queueAsync(final StateProvider stateProvider, final NodeAssignments assignments) {
+
+        return requestExecutor.submit(new Callable<Boolean>() {
+
+            public Boolean call() throws SchedulerException {
+
+                return queue(stateProvider, assignments);
+            }
+        });
+    }
+
+    /**
+     * Send captured state without blocking the caller
+     *
+     * @see #queue(QueueState)
+     */
+    public Future<Boolean> queueAsync(final QueueState state) {
+
+        return requestExecutor.submit(new Callable<Boolean>() {
+
+            public Boolean call() throws SchedulerException {
+
+                return queue(state);
+            }
+        });
+    }
+
+    private boolean upToDate(final QueueState state) {
+
+        if (lastSent == null || !lastSent.equals(state)) return false;
+
+        return System.currentTimeMillis() - lastSentTimestamp < UNCHANGED_RESEND_PERIOD;
+    }
+
+    private void sendQueue(final QueueState state) throws SchedulerException {
 
         try {
 
-            LOGGER.info(queueString);
-            resource.post(queueString);
+            submit(true, "", queueEntity(state));
             status = Status.RUNNING;
         } catch (UniformInterfaceException ex) {
 
@@ -232,23 +856,230 @@ public final class RestScheduler {
         }
     }
 
-    private void updateQueue(final WebResource.Builder resource, final String queueString) throws SchedulerException {
+    private void updateQueue(final QueueState state) throws SchedulerException {
 
         try {
 
-            LOGGER.info(queueString);
-            resource.put(queueString);
+            submit(false, "", queueEntity(state));
         } catch (UniformInterfaceException ex) {
 
-            sendQueue(resource, queueString);
+            sendQueue(state);
         }
     }
 
+    private void updateDelta(final QueueState previous, final QueueState current) throws SchedulerException {
+
+        try {
+
+            submit(false, "/delta", deltaEntity(previous, current));
+        } catch (UniformInterfaceException ex) {
+
+            final int code = ex.getResponse().getStatus();
+            if (code == 404 || code == 405 || code == 501) {
+
+                LOGGER.info("Remote planner does not support delta updates, sending whole queue");
+                deltaUpdates = false;
+            } else {
+
+                // Rejected or resync requested
+                LOGGER.info("Queue delta not accepted (" + code + "), resending whole queue");
+            }
+
+            sendQueue(current);
+        } catch (ClientHandlerException ex) {
+
+            throw new SchedulerException(ex);
+        }
+    }
+
+    /**
+     * POST or PUT entity, compressed if it is expected to be large
+     */
+    private void submit(final boolean post, final String suffix, final MeasuredEntity entity) {
+
+        if (attempt(post, suffix, entity)) return;
+
+        LOGGER.info("Remote planner does not accept compressed requests");
+        compressionThreshold = -1;
+        attempt(post, suffix, entity);
+    }
+
+    /**
+     * Send entity once, latency is recorded for every attempt
+     *
+     * @return false if planner rejected compressed request so it has to be resent uncompressed
+     */
+    private boolean attempt(final boolean post, final String suffix, final MeasuredEntity entity) {
+
+        final boolean compressed = compressRequest(entity.expectedSize());
+        final String endpoint = (post ? "POST " : "PUT ") + (suffix.length() == 0 ? "/" : suffix);
+
+        WebResource.Builder builder = getResource(suffix).type(codec.mediaType());
+        if (compressed) {
+
+            // Compressed by the GZIPContentEncodingFilter
+            builder = builder.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+        }
+
+        final Tracer.Exchange trace = tracer.start(endpoint);
+        if (trace != null) {
+
+            trace.requestType(codec.mediaType());
+        }
+
+        final long start = System.nanoTime();
+        try {
+
+            entity.trace = trace;
+            if (post) {
+
+                builder.post(entity);
+            } else {
+
+                builder.put(entity);
+            }
+            if (trace != null) trace.outcome(compressed ? "2xx (gzip)" : "2xx");
+            return true;
+        } catch (ClientHandlerException ex) {
+
+            metrics.error(endpoint);
+            if (trace != null) trace.failed(ex);
+            throw ex;
+        } catch (UniformInterfaceException ex) {
+
+            if (trace != null) trace.status(ex.getResponse().getStatus());
+            if (compressed && ex.getResponse().getStatus() == 415) {
+
+                // Recovered by resending, not an error
+                metrics.increment("compression rejected");
+                return false;
+            }
+
+            metrics.error(endpoint);
+            throw ex;
+        } finally {
+
+            metrics.latency(endpoint, start);
+            tracer.finish(trace, start);
+        }
+    }
+
+    private boolean compressRequest(final long expectedSize) {
+
+        return compressionThreshold >= 0
+                && expectedSize >= compressionThreshold
+                && capabilities.contains(GZIP)
+        ;
+    }
+
+    private MeasuredEntity queueEntity(final QueueState state) {
+
+        return new MeasuredEntity(lastQueueSize, "request queue") {
+
+            @Override
+            protected void writeTo(final OutputStream output) throws IOException {
+
+                if (capabilities.contains(NODE_DICTIONARY)) {
+
+                    serializator.writeDictionaryQuery(state, output, codec);
+                } else {
+
+                    serializator.writeQuery(state, output, codec);
+                }
+            }
+        };
+    }
+
+    private MeasuredEntity deltaEntity(final QueueState previous, final QueueState current) {
+
+        return new MeasuredEntity(lastDeltaSize, "request delta") {
+
+            @Override
+            protected void writeTo(final OutputStream output) throws IOException {
+
+                serializator.writeDelta(previous, current, output, codec);
+            }
+        };
+    }
+
+    /**
+     * Request entity that records its uncompressed size
+     *
+     * The size of the last entity of the same kind is used to decide on
+     * compression before the entity is written.
+     */
+    private static abstract class MeasuredEntity implements StreamingOutput {
+
+        private final AtomicLong lastSize;
+        private final Metrics.Histogram sizes;
+
+        /**
+         * Exchange to copy the body to, if traced
+         */
+        private volatile Tracer.Exchange trace;
+
+        private MeasuredEntity(final AtomicLong lastSize, final String name) {
+
+            this.lastSize = lastSize;
+            this.sizes = metrics.histogram(name, "bytes");
+        }
+
+        /*package*/ long expectedSize() {
+
+            return lastSize.get();
+        }
+
+        public final void write(final OutputStream output) throws IOException {
+
+            final Tracer.Exchange trace = this.trace;
+            final CountingOutputStream counter = new CountingOutputStream(
+                    trace == null ? output : trace.request(output)
+            );
+            writeTo(counter);
+            lastSize.set(counter.count);
+            sizes.record(counter.count);
+        }
+
+        protected abstract void writeTo(final OutputStream output) throws IOException;
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count = 0;
+
+        private CountingOutputStream(final OutputStream out) {
+
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Forget what planner was sent so the next update sends the whole queue
+     */
+    /*package*/ synchronized void forgetSent() {
+
+        lastSent = null;
+    }
+
     /**
      * @throws SchedulerException
      * @see org.jenkinsci.plugins.externalscheduler.Scheduler#stop()
      */
-    public RestScheduler stop() throws SchedulerException {
+    public synchronized RestScheduler stop() throws SchedulerException {
 
         if (!status.isRunning()) {
 
@@ -261,20 +1092,49 @@ public final class RestScheduler {
         LOGGER.info("Stopping remote planner " + serviceDestination.toString());
 
         status = Status.STOPPED;
+        lastSent = null;
+        cachedSolution = null;
+        cachedScore = null;
+        final Tracer.Exchange trace = tracer.start("DELETE /");
+        final long start = System.nanoTime();
         try {
 
             getResource().delete();
+            if (trace != null) trace.outcome("2xx");
         } catch (UniformInterfaceException ex) {
 
+            metrics.error("DELETE /");
+            if (trace != null) trace.status(ex.getResponse().getStatus());
             throw new SchedulerException(ex);
         } catch (ClientHandlerException ex) {
 
+            metrics.error("DELETE /");
+            if (trace != null) trace.failed(ex);
             throw new SchedulerException(ex);
+        } finally {
+
+            metrics.latency("DELETE /", start);
+            tracer.finish(trace, start);
         }
 
         return this;
     }
 
+    /**
+     * Value with entity tag it was served with
+     */
+    private static final class Tagged<T> {
+
+        private final String tag;
+        private final T value;
+
+        private Tagged(final String tag, final T value) {
+
+            this.tag = tag;
+            this.value = value;
+        }
+    }
+
     private WebResource getResource() {
 
         return getResource("");
@@ -0,0 +1,328 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import hudson.util.DaemonThreadFactory;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+import org.jenkinsci.plugins.externalscheduler.StateProvider;
+import org.jenkinsci.plugins.restservicescheduler.json.QueueState;
+import org.jenkinsci.plugins.restservicescheduler.json.Translator;
+
+/**
+ * Split the queue among several remote planners
+ *
+ * Queue is partitioned to connected components of items and nodes they can
+ * be assigned to, so each planner solves independent part of the farm. Each
+ * partition is sent to its planner in parallel and their solutions are
+ * merged.
+ *
+ * Partitions change as items come and go so queue changes are not sent on
+ * their own and planners do not push solutions.
+ *
+ * @author ogondza
+ */
+public final class ShardedPlanner implements Planner {
+
+    private final static Logger LOGGER = Logger.getLogger(
+            ShardedPlanner.class.getName()
+    );
+
+    private static final Translator serializator = new Translator();
+
+    private static final Metrics metrics = Metrics.get();
+
+    /**
+     * Runs asynchronous requests
+     */
+    private static final ExecutorService requestExecutor = Executors.newCachedThreadPool(
+            new DaemonThreadFactory()
+    );
+
+    private final List<RestScheduler> shards;
+
+    /**
+     * Partitions last sent to shards, solutions are taken for their items only
+     */
+    private volatile List<QueueState> partitions;
+
+    public ShardedPlanner(final List<RestScheduler> shards) {
+
+        if (shards == null || shards.isEmpty()) throw new IllegalArgumentException("No shards provided");
+
+        this.shards = Collections.unmodifiableList(new ArrayList<RestScheduler>(shards));
+    }
+
+    public List<RestScheduler> shards() {
+
+        return shards;
+    }
+
+    public URL remoteUrl() {
+
+        return shards.get(0).remoteUrl();
+    }
+
+    /**
+     * Features supported by all shards, solution push excluded
+     */
+    public Set<String> capabilities() {
+
+        final Set<String> capabilities = new HashSet<String>(shards.get(0).capabilities());
+        for (final RestScheduler shard: shards) {
+
+            capabilities.retainAll(shard.capabilities());
+        }
+
+        capabilities.remove(RestScheduler.SOLUTION_PUSH);
+        return Collections.unmodifiableSet(capabilities);
+    }
+
+    public long sentUpdates() {
+
+        long sent = 0;
+        for (final RestScheduler shard: shards) {
+
+            sent += shard.sentUpdates();
+        }
+
+        return sent;
+    }
+
+    public long skippedUpdates() {
+
+        long skipped = 0;
+        for (final RestScheduler shard: shards) {
+
+            skipped += shard.skippedUpdates();
+        }
+
+        return skipped;
+    }
+
+    /**
+     * @return false in case no shard needed an update
+     * @throws SchedulerException
+     */
+    public boolean queue(
+            final StateProvider stateProvider, final NodeAssignments assignments
+    ) throws SchedulerException {
+
+        return queue(capture(stateProvider, assignments));
+    }
+
+    public QueueState capture(final StateProvider stateProvider, final NodeAssignments assignments) {
+
+        if (assignments == null) throw new IllegalArgumentException("No assignments");
+        if (stateProvider == null) throw new IllegalArgumentException("No stateProvider");
+
+        final long start = System.nanoTime();
+        final QueueState state = serializator.capture(stateProvider, assignments);
+        metrics.histogram("snapshot capture", "ms").record(Metrics.millisSince(start));
+        return state;
+    }
+
+    /**
+     * Partition captured state and send the partitions to shards
+     *
+     * @return false in case no shard needed an update
+     * @throws SchedulerException
+     */
+    public synchronized boolean queue(final QueueState state) throws SchedulerException {
+
+        final List<QueueState> previous = this.partitions;
+        final List<QueueState> partitions = serializator.partition(
+                state, shards.size(), previous == null ? Collections.<QueueState>emptyList() : previous
+        );
+
+        final List<Future<Boolean>> sent = new ArrayList<Future<Boolean>>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+
+            sent.add(shards.get(i).queueAsync(partitions.get(i)));
+        }
+
+        // Solutions of shards refer to what was sent, successfully or not
+        this.partitions = partitions;
+
+        boolean changed = false;
+        for (final Boolean shardChanged: awaitAll(sent)) {
+
+            changed |= shardChanged;
+        }
+
+        return changed;
+    }
+
+    public Future<Boolean> queueAsync(final StateProvider stateProvider, final NodeAssignments assignments) {
+
+        return requestExecutor.submit(new Callable<Boolean>() {
+
+            public Boolean call() throws SchedulerException {
+
+                return queue(stateProvider, assignments);
+            }
+        });
+    }
+
+    public Future<Boolean> queueAsync(final QueueState state) {
+
+        return requestExecutor.submit(new Callable<Boolean>() {
+
+            public Boolean call() throws SchedulerException {
+
+                return queue(state);
+            }
+        });
+    }
+
+    /**
+     * Changes can move items between partitions, whole queue has to be sent
+     */
+    public boolean acceptsChanges() {
+
+        return false;
+    }
+
+    /**
+     * Changes can move items between partitions, whole queue has to be sent
+     */
+    public Future<Boolean> queueChangesAsync(
+            final StateProvider stateProvider,
+            final NodeAssignments assignments,
+            final QueueChanges.Batch changes
+    ) {
+
+        final FutureTask<Boolean> wholeQueueNeeded = new FutureTask<Boolean>(new Callable<Boolean>() {
+
+            public Boolean call() {
+
+                return false;
+            }
+        });
+        wholeQueueNeeded.run();
+        return wholeQueueNeeded;
+    }
+
+    /**
+     * Merged solutions of all shards
+     *
+     * Empty until the queue is partitioned and sent for the first time.
+     *
+     * @throws SchedulerException
+     */
+    public NodeAssignments solution() throws SchedulerException {
+
+        final List<QueueState> partitions = this.partitions;
+        if (partitions == null) return NodeAssignments.empty();
+
+        final List<Future<NodeAssignments>> solutions = new ArrayList<Future<NodeAssignments>>(shards.size());
+        for (final RestScheduler shard: shards) {
+
+            solutions.add(shard.solutionAsync());
+        }
+
+        return serializator.merge(partitions, awaitAll(solutions));
+    }
+
+    public Future<NodeAssignments> solutionAsync() {
+
+        return requestExecutor.submit(new Callable<NodeAssignments>() {
+
+            public NodeAssignments call() throws SchedulerException {
+
+                return solution();
+            }
+        });
+    }
+
+    public ShardedPlanner stop() throws SchedulerException {
+
+        SchedulerException failure = null;
+        for (final RestScheduler shard: shards) {
+
+            try {
+
+                shard.stop();
+            } catch (SchedulerException ex) {
+
+                LOGGER.info("Failed stopping remote planner " + shard.remoteUrl());
+                failure = ex;
+            }
+        }
+
+        if (failure != null) throw failure;
+
+        return this;
+    }
+
+    /**
+     * Wait for all futures so no request outlives the call
+     *
+     * @throws SchedulerException The first failure
+     */
+    private static <T> List<T> awaitAll(final List<Future<T>> futures) throws SchedulerException {
+
+        final List<T> results = new ArrayList<T>(futures.size());
+        SchedulerException failure = null;
+        for (final Future<T> future: futures) {
+
+            try {
+
+                results.add(future.get());
+            } catch (ExecutionException ex) {
+
+                results.add(null);
+                if (failure == null) {
+
+                    failure = ex.getCause() instanceof SchedulerException
+                            ? (SchedulerException) ex.getCause()
+                            : new SchedulerException(ex.getCause())
+                    ;
+                }
+            } catch (InterruptedException ex) {
+
+                Thread.currentThread().interrupt();
+                throw new SchedulerException(ex);
+            }
+        }
+
+        if (failure != null) throw failure;
+
+        return results;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+
+/**
+ * Receive solutions pushed by remote planner over long-polling connection
+ *
+ * While connected, {@link PluginScheduler.RemoteUpdater} does not need to poll
+ * for solution.
+ *
+ * @author ogondza
+ */
+/*package*/ final class SolutionListener implements Runnable {
+
+    private final static Logger LOGGER = Logger.getLogger(
+            SolutionListener.class.getName()
+    );
+
+    private static final long RETRY_DELAY = 5 * 1000;
+
+    private final PushPlanner scheduler;
+    private final PluginScheduler.RemoteUpdater updater;
+    private final long retryDelay;
+
+    private volatile boolean connected = false;
+    private volatile boolean stopped = false;
+
+    private Thread thread;
+
+    /*package*/ SolutionListener(final PushPlanner scheduler, final PluginScheduler.RemoteUpdater updater) {
+
+        this(scheduler, updater, RETRY_DELAY);
+    }
+
+    /*package*/ SolutionListener(
+            final PushPlanner scheduler, final PluginScheduler.RemoteUpdater updater, final long retryDelay
+    ) {
+
+        if (scheduler == null) throw new IllegalArgumentException("No scheduler provided");
+        if (updater == null) throw new IllegalArgumentException("No updater provided");
+
+        this.scheduler = scheduler;
+        this.updater = updater;
+        this.retryDelay = retryDelay;
+    }
+
+    public void start() {
+
+        thread = new Thread(this, "Solution listener for " + scheduler.remoteUrl());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+
+        stopped = true;
+        connected = false;
+        if (thread != null) {
+
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Solutions are being delivered as they are found
+     */
+    public boolean isConnected() {
+
+        return connected;
+    }
+
+    /**
+     * Keep listening until stopped, failures only switch updater to polling for a while
+     */
+    public void run() {
+
+        while (!stopped) {
+
+            if (!scheduler.isRunning()) {
+
+                // Nothing to wait for until the queue is sent
+                connected = false;
+                if (!retryLater()) return;
+                continue;
+            }
+
+            try {
+
+                final NodeAssignments solution = scheduler.awaitSolution();
+                connected = !stopped;
+
+                if (solution != null && !stopped && !updater.solutionPushed(solution)) {
+
+                    // Planner keeps answering with what was delivered already
+                    if (!retryLater()) return;
+                }
+            } catch (SchedulerException ex) {
+
+                connected = false;
+                LOGGER.log(Level.FINE, "Waiting for solution failed, falling back to polling", ex);
+                if (!retryLater()) return;
+            } catch (RuntimeException ex) {
+
+                connected = false;
+                LOGGER.log(Level.WARNING, "Receiving solution failed, falling back to polling", ex);
+                if (!retryLater()) return;
+            }
+        }
+    }
+
+    /**
+     * @return false if interrupted while waiting
+     */
+    private boolean retryLater() {
+
+        try {
+
+            Thread.sleep(retryDelay);
+            return true;
+        } catch (InterruptedException ex) {
+
+            return false;
+        }
+    }
+}
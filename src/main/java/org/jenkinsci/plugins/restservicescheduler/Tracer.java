@@ -0,0 +1,384 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Record sampled exchanges with remote planner in a ring buffer
+ *
+ * Disabled by default, nothing is recorded nor copied then. Bodies are
+ * captured while streamed up to a size limit.
+ *
+ * @author ogondza
+ */
+public final class Tracer {
+
+    private static final Tracer INSTANCE = new Tracer(
+            Integer.getInteger(Tracer.class.getName() + ".capacity", 100)
+    );
+
+    private volatile boolean enabled = Boolean.getBoolean(Tracer.class.getName() + ".enabled");
+
+    /**
+     * Record every n-th exchange
+     */
+    private volatile int sampling = 1;
+
+    /**
+     * Bytes of request and response body to keep
+     */
+    private volatile int maxBytes = 4096;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Exchange[] ring;
+    private int next = 0;
+
+    /*package*/ Tracer(final int capacity) {
+
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity has to be positive: " + capacity);
+
+        this.ring = new Exchange[capacity];
+    }
+
+    public static Tracer get() {
+
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+
+        return enabled;
+    }
+
+    public int getSampling() {
+
+        return sampling;
+    }
+
+    public int getMaxBytes() {
+
+        return maxBytes;
+    }
+
+    public int getCapacity() {
+
+        return ring.length;
+    }
+
+    /**
+     * @param sampling Record every n-th exchange
+     * @param maxBytes Bytes of body to keep
+     */
+    /*package*/ void configure(final boolean enabled, final int sampling, final int maxBytes) {
+
+        if (sampling <= 0) throw new IllegalArgumentException("Sampling has to be positive: " + sampling);
+        if (maxBytes < 0) throw new IllegalArgumentException("Body size can not be negative: " + maxBytes);
+
+        this.sampling = sampling;
+        this.maxBytes = maxBytes;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Start recording exchange
+     *
+     * @return Exchange to record or null if not sampled
+     */
+    /*package*/ Exchange start(final String endpoint) {
+
+        if (!enabled) return null;
+
+        if (sequence.incrementAndGet() % sampling != 0) return null;
+
+        return new Exchange(endpoint, maxBytes);
+    }
+
+    /**
+     * Exchange completed
+     */
+    /*package*/ void finish(final Exchange exchange, final long start) {
+
+        if (exchange == null) return;
+
+        exchange.duration = Metrics.millisSince(start);
+        synchronized (ring) {
+
+            ring[next] = exchange;
+            next = (next + 1) % ring.length;
+        }
+    }
+
+    /**
+     * Recorded exchanges, the latest first
+     */
+    public List<Exchange> getExchanges() {
+
+        final List<Exchange> exchanges = new ArrayList<Exchange>(ring.length);
+        synchronized (ring) {
+
+            for (int i = 1; i <= ring.length; i++) {
+
+                final Exchange exchange = ring[(next - i + ring.length) % ring.length];
+                if (exchange == null) break;
+
+                exchanges.add(exchange);
+            }
+        }
+
+        return Collections.unmodifiableList(exchanges);
+    }
+
+    /*package*/ void clear() {
+
+        synchronized (ring) {
+
+            for (int i = 0; i < ring.length; i++) {
+
+                ring[i] = null;
+            }
+            next = 0;
+        }
+    }
+
+    /**
+     * Request to remote planner and its response
+     */
+    public static final class Exchange {
+
+        private final Date timestamp = new Date();
+        private final String endpoint;
+        private final Body request;
+        private final Body response;
+
+        private volatile String outcome = "";
+        private volatile long duration;
+
+        private Exchange(final String endpoint, final int maxBytes) {
+
+            this.endpoint = endpoint;
+            this.request = new Body(maxBytes);
+            this.response = new Body(maxBytes);
+        }
+
+        public Date getTimestamp() {
+
+            return timestamp;
+        }
+
+        public String getEndpoint() {
+
+            return endpoint;
+        }
+
+        /**
+         * Status or failure
+         */
+        public String getOutcome() {
+
+            return outcome;
+        }
+
+        public long getDuration() {
+
+            return duration;
+        }
+
+        public String getRequest() {
+
+            return request.toString();
+        }
+
+        public String getResponse() {
+
+            return response.toString();
+        }
+
+        /*package*/ void outcome(final String outcome) {
+
+            this.outcome = outcome;
+        }
+
+        /*package*/ void status(final int status) {
+
+            this.outcome = String.valueOf(status);
+        }
+
+        /*package*/ void failed(final Exception ex) {
+
+            this.outcome = ex.toString();
+        }
+
+        /*package*/ void requestType(final String type) {
+
+            request.type = type;
+        }
+
+        /*package*/ void responseType(final String type) {
+
+            response.type = type;
+        }
+
+        /*package*/ void response(final String body) {
+
+            try {
+
+                final byte[] bytes = body.getBytes("UTF-8");
+                response.write(bytes, 0, bytes.length);
+            } catch (UnsupportedEncodingException ex) {
+
+                throw new AssertionError(ex);
+            }
+        }
+
+        /**
+         * Copy request body as it is written
+         */
+        /*package*/ OutputStream request(final OutputStream out) {
+
+            return new FilterOutputStream(out) {
+
+                @Override
+                public void write(final int b) throws IOException {
+
+                    out.write(b);
+                    request.write(b);
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) throws IOException {
+
+                    out.write(b, off, len);
+                    request.write(b, off, len);
+                }
+            };
+        }
+
+        /**
+         * Copy response body as it is read
+         */
+        /*package*/ InputStream response(final InputStream in) {
+
+            return new FilterInputStream(in) {
+
+                @Override
+                public int read() throws IOException {
+
+                    final int b = in.read();
+                    if (b >= 0) {
+
+                        response.write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+
+                    final int count = in.read(b, off, len);
+                    if (count > 0) {
+
+                        response.write(b, off, count);
+                    }
+                    return count;
+                }
+            };
+        }
+    }
+
+    /**
+     * Body captured up to a limit
+     */
+    private static final class Body {
+
+        private final byte[] bytes;
+        private int size = 0;
+        private long total = 0;
+        private volatile String type;
+
+        private Body(final int maxBytes) {
+
+            this.bytes = new byte[maxBytes];
+        }
+
+        private synchronized void write(final int b) {
+
+            if (size < bytes.length) {
+
+                bytes[size++] = (byte) b;
+            }
+            total++;
+        }
+
+        private synchronized void write(final byte[] b, final int off, final int len) {
+
+            final int copied = Math.min(len, bytes.length - size);
+            System.arraycopy(b, off, bytes, size, copied);
+            size += copied;
+            total += len;
+        }
+
+        @Override
+        public synchronized String toString() {
+
+            if (total == 0) return "";
+
+            final StringBuilder builder = new StringBuilder();
+            if (type != null && type.contains("cbor")) {
+
+                for (int i = 0; i < size; i++) {
+
+                    builder.append(String.format("%02x ", bytes[i] & 0xff));
+                }
+            } else {
+
+                try {
+
+                    builder.append(new String(bytes, 0, size, "UTF-8"));
+                } catch (UnsupportedEncodingException ex) {
+
+                    throw new AssertionError(ex);
+                }
+            }
+
+            if (total > size) {
+
+                builder.append("... (").append(total).append(" bytes)");
+            }
+
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,534 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler.json;
+
+import static org.jenkinsci.plugins.restservicescheduler.json.CborWriter.BREAK;
+import static org.jenkinsci.plugins.restservicescheduler.json.CborWriter.INDEFINITE;
+import static org.jenkinsci.plugins.restservicescheduler.json.CborWriter.MAJOR_ARRAY;
+import static org.jenkinsci.plugins.restservicescheduler.json.CborWriter.MAJOR_MAP;
+import static org.jenkinsci.plugins.restservicescheduler.json.CborWriter.MAJOR_NEGATIVE;
+import static org.jenkinsci.plugins.restservicescheduler.json.CborWriter.MAJOR_SIMPLE;
+import static org.jenkinsci.plugins.restservicescheduler.json.CborWriter.MAJOR_TAG;
+import static org.jenkinsci.plugins.restservicescheduler.json.CborWriter.MAJOR_TEXT;
+import static org.jenkinsci.plugins.restservicescheduler.json.CborWriter.MAJOR_UNSIGNED;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * Read CBOR data items through {@link JsonReader} interface
+ *
+ * Both definite and indefinite length arrays, maps and text strings are
+ * accepted. Map keys are expected to be text strings, tags are ignored and
+ * byte strings are not supported.
+ *
+ * @author ogondza
+ */
+/*package*/ final class CborReader extends JsonReader {
+
+    private static final String CHARSET = "UTF-8";
+
+    private static final Reader UNUSED = new Reader() {
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {}
+    };
+
+    private final InputStream in;
+
+    /**
+     * Initial byte of the next data item, negative if not read yet
+     */
+    private int initial = -1;
+
+    private final List<Container> stack = new ArrayList<Container>();
+    private boolean documentRead = false;
+
+    /*package*/ CborReader(final InputStream in) {
+
+        super(UNUSED);
+        this.in = new BufferedInputStream(in);
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+
+        final Container container = container();
+        if (container == null && documentRead) return JsonToken.END_DOCUMENT;
+
+        if (container != null && container.isComplete(this)) {
+
+            return container.map ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+        }
+
+        int initial = initial();
+        while (initial >>> 5 == MAJOR_TAG) {
+
+            // Tag is not interesting, the tagged item is
+            argument(initial);
+            this.initial = -1;
+            initial = initial();
+        }
+
+        if (container != null && container.expectsName()) {
+
+            if (initial >>> 5 != MAJOR_TEXT) throw malformed("Map key is not a text string");
+            return JsonToken.NAME;
+        }
+
+        switch (initial >>> 5) {
+        case MAJOR_UNSIGNED:
+        case MAJOR_NEGATIVE:
+            return JsonToken.NUMBER;
+        case MAJOR_TEXT:
+            return JsonToken.STRING;
+        case MAJOR_ARRAY:
+            return JsonToken.BEGIN_ARRAY;
+        case MAJOR_MAP:
+            return JsonToken.BEGIN_OBJECT;
+        case MAJOR_SIMPLE:
+            switch (initial & 0x1f) {
+            case 20:
+            case 21:
+                return JsonToken.BOOLEAN;
+            case 22:
+            case 23:
+                return JsonToken.NULL;
+            case 25:
+            case 26:
+            case 27:
+                return JsonToken.NUMBER;
+            }
+        }
+
+        throw malformed("Unsupported data item 0x" + Integer.toHexString(initial));
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+
+        final JsonToken token = peek();
+        return token != JsonToken.END_OBJECT
+                && token != JsonToken.END_ARRAY
+                && token != JsonToken.END_DOCUMENT
+        ;
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+
+        expect(JsonToken.BEGIN_ARRAY);
+        open(false);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+
+        expect(JsonToken.END_ARRAY);
+        close(container());
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+
+        expect(JsonToken.BEGIN_OBJECT);
+        open(true);
+    }
+
+    @Override
+    public void endObject() throws IOException {
+
+        expect(JsonToken.END_OBJECT);
+        close(container());
+    }
+
+    @Override
+    public String nextName() throws IOException {
+
+        expect(JsonToken.NAME);
+        return text();
+    }
+
+    @Override
+    public String nextString() throws IOException {
+
+        final JsonToken token = peek();
+        if (token == JsonToken.NUMBER) return number().toString();
+
+        expect(JsonToken.STRING);
+        return text();
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+
+        expect(JsonToken.BOOLEAN);
+        final boolean value = (initial() & 0x1f) == 21;
+        consumed();
+        return value;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+
+        expect(JsonToken.NULL);
+        consumed();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+
+        return number().doubleValue();
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+
+        final Number number = number();
+        final long value = number.longValue();
+        if (value != number.doubleValue()) throw new NumberFormatException(
+                "Expected a long but was " + number
+        );
+        return value;
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+
+        final long value = nextLong();
+        if (value != (int) value) throw new NumberFormatException(
+                "Expected an int but was " + value
+        );
+        return (int) value;
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+
+        switch (peek()) {
+        case BEGIN_ARRAY:
+            beginArray();
+            while (hasNext()) {
+
+                skipValue();
+            }
+            endArray();
+            break;
+        case BEGIN_OBJECT:
+            beginObject();
+            while (hasNext()) {
+
+                nextName();
+                skipValue();
+            }
+            endObject();
+            break;
+        case NAME:
+        case STRING:
+            text();
+            break;
+        case NUMBER:
+            number();
+            break;
+        case BOOLEAN:
+        case NULL:
+            consumed();
+            break;
+        default:
+            throw new IllegalStateException("Expected a value but was " + peek());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        stack.clear();
+        in.close();
+    }
+
+    @Override
+    public String toString() {
+
+        return getClass().getSimpleName();
+    }
+
+    private void expect(final JsonToken expected) throws IOException {
+
+        final JsonToken actual = peek();
+        if (actual != expected) throw new IllegalStateException(
+                "Expected " + expected + " but was " + actual
+        );
+    }
+
+    private Container container() {
+
+        return stack.isEmpty() ? null : stack.get(stack.size() - 1);
+    }
+
+    private void open(final boolean map) throws IOException {
+
+        final int initial = initial();
+        final long length = (initial & 0x1f) == INDEFINITE ? -1 : argument(initial);
+        this.initial = -1;
+
+        stack.add(new Container(map, map && length >= 0 ? length * 2 : length));
+    }
+
+    private void close(final Container container) throws IOException {
+
+        if (container.remaining < 0) {
+
+            // Consume break
+            initial();
+            this.initial = -1;
+        }
+
+        stack.remove(stack.size() - 1);
+        consumed();
+    }
+
+    /**
+     * Data item was read, move to the next one
+     */
+    private void consumed() {
+
+        initial = -1;
+
+        final Container container = container();
+        if (container == null) {
+
+            documentRead = true;
+        } else {
+
+            container.read++;
+            if (container.remaining > 0) {
+
+                container.remaining--;
+            }
+        }
+    }
+
+    private String text() throws IOException {
+
+        final int initial = initial();
+        final String value;
+        if ((initial & 0x1f) == INDEFINITE) {
+
+            // Concatenation of definite length chunks
+            final StringBuilder builder = new StringBuilder();
+            for (int chunk = read(); chunk != BREAK; chunk = read()) {
+
+                if (chunk >>> 5 != MAJOR_TEXT) throw malformed("Text chunk is not a text string");
+                builder.append(chunk(chunk));
+            }
+            value = builder.toString();
+        } else {
+
+            value = chunk(initial);
+        }
+
+        consumed();
+        return value;
+    }
+
+    private String chunk(final int initial) throws IOException {
+
+        final long length = argument(initial);
+        if (length > Integer.MAX_VALUE) throw malformed("Text string too long");
+
+        final byte[] bytes = new byte[(int) length];
+        int offset = 0;
+        while (offset < bytes.length) {
+
+            final int count = in.read(bytes, offset, bytes.length - offset);
+            if (count < 0) throw new EOFException("End of input inside text string");
+            offset += count;
+        }
+
+        return new String(bytes, CHARSET);
+    }
+
+    private Number number() throws IOException {
+
+        expect(JsonToken.NUMBER);
+
+        final int initial = initial();
+        final Number value;
+        switch (initial >>> 5) {
+        case MAJOR_UNSIGNED:
+            final long positive = argument(initial);
+            value = positive >= 0
+                    ? (Number) positive
+                    : (Number) unsigned(positive)
+            ;
+            break;
+        case MAJOR_NEGATIVE:
+            final long negative = argument(initial);
+            value = negative >= 0
+                    ? (Number) (-1 - negative)
+                    : (Number) (-1 - unsigned(negative))
+            ;
+            break;
+        default:
+            value = floating(initial);
+        }
+
+        consumed();
+        return value;
+    }
+
+    /**
+     * Value of argument over 63 bits that wrapped around
+     */
+    private static double unsigned(final long argument) {
+
+        return (double) (argument >>> 1) * 2 + (argument & 1);
+    }
+
+    private double floating(final int initial) throws IOException {
+
+        switch (initial & 0x1f) {
+        case 25:
+            return half((int) readBytes(2));
+        case 26:
+            return Float.intBitsToFloat((int) readBytes(4));
+        default:
+            return Double.longBitsToDouble(readBytes(8));
+        }
+    }
+
+    private static double half(final int bits) {
+
+        final int exponent = (bits >> 10) & 0x1f;
+        final int mantissa = bits & 0x3ff;
+
+        final double value;
+        if (exponent == 0) {
+
+            value = mantissa * Math.pow(2, -24);
+        } else if (exponent == 31) {
+
+            value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        } else {
+
+            value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+        }
+
+        return (bits & 0x8000) != 0 ? -value : value;
+    }
+
+    /**
+     * Argument of the data item following the initial byte
+     */
+    private long argument(final int initial) throws IOException {
+
+        final int info = initial & 0x1f;
+        if (info < 24) return info;
+
+        switch (info) {
+        case 24: return readBytes(1);
+        case 25: return readBytes(2);
+        case 26: return readBytes(4);
+        case 27: return readBytes(8);
+        }
+
+        throw malformed("Unexpected additional information " + info);
+    }
+
+    private long readBytes(final int count) throws IOException {
+
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+
+            value = value << 8 | read();
+        }
+        return value;
+    }
+
+    private int initial() throws IOException {
+
+        if (initial < 0) {
+
+            initial = read();
+        }
+
+        return initial;
+    }
+
+    private int read() throws IOException {
+
+        final int b = in.read();
+        if (b < 0) throw new EOFException("End of input");
+        return b;
+    }
+
+    private static MalformedJsonException malformed(final String message) {
+
+        return new MalformedJsonException(message);
+    }
+
+    private static final class Container {
+
+        private final boolean map;
+
+        /**
+         * Data items left to read, negative for indefinite length
+         */
+        private long remaining;
+        private long read = 0;
+
+        private Container(final boolean map, final long remaining) {
+
+            this.map = map;
+            this.remaining = remaining;
+        }
+
+        private boolean expectsName() {
+
+            return map && read % 2 == 0;
+        }
+
+        private boolean isComplete(final CborReader reader) throws IOException {
+
+            if (remaining >= 0) return remaining == 0;
+
+            return reader.initial() == BREAK;
+        }
+    }
+}
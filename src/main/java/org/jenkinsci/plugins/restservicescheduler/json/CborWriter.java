@@ -0,0 +1,228 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler.json;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Write CBOR data items through {@link JsonWriter} interface
+ *
+ * Arrays and maps are written with indefinite length so nothing needs to be
+ * buffered. Integral numbers are written as CBOR integers, the rest as
+ * doubles.
+ *
+ * @author ogondza
+ */
+/*package*/ final class CborWriter extends JsonWriter {
+
+    /*package*/ static final int MAJOR_UNSIGNED = 0;
+    /*package*/ static final int MAJOR_NEGATIVE = 1;
+    /*package*/ static final int MAJOR_BYTES = 2;
+    /*package*/ static final int MAJOR_TEXT = 3;
+    /*package*/ static final int MAJOR_ARRAY = 4;
+    /*package*/ static final int MAJOR_MAP = 5;
+    /*package*/ static final int MAJOR_TAG = 6;
+    /*package*/ static final int MAJOR_SIMPLE = 7;
+
+    /*package*/ static final int INDEFINITE = 31;
+    /*package*/ static final int BREAK = 0xff;
+
+    /*package*/ static final int FALSE = 0xf4;
+    /*package*/ static final int TRUE = 0xf5;
+    /*package*/ static final int NULL = 0xf6;
+    /*package*/ static final int DOUBLE = 0xfb;
+
+    private static final String CHARSET = "UTF-8";
+
+    private static final Writer UNUSED = new Writer() {
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    };
+
+    private final OutputStream out;
+
+    /*package*/ CborWriter(final OutputStream out) {
+
+        super(UNUSED);
+        this.out = new BufferedOutputStream(out);
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+
+        out.write(MAJOR_ARRAY << 5 | INDEFINITE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+
+        out.write(BREAK);
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+
+        out.write(MAJOR_MAP << 5 | INDEFINITE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+
+        out.write(BREAK);
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(final String name) throws IOException {
+
+        if (name == null) throw new NullPointerException("name == null");
+
+        return value(name);
+    }
+
+    @Override
+    public JsonWriter value(final String value) throws IOException {
+
+        if (value == null) return nullValue();
+
+        final byte[] bytes = value.getBytes(CHARSET);
+        head(MAJOR_TEXT, bytes.length);
+        out.write(bytes);
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+
+        out.write(NULL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(final boolean value) throws IOException {
+
+        out.write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(final double value) throws IOException {
+
+        out.write(DOUBLE);
+        writeBytes(Double.doubleToLongBits(value), 8);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(final long value) throws IOException {
+
+        if (value >= 0) {
+
+            head(MAJOR_UNSIGNED, value);
+        } else {
+
+            head(MAJOR_NEGATIVE, -1 - value);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(final Number value) throws IOException {
+
+        if (value == null) return nullValue();
+
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+
+            return value(value.longValue());
+        }
+
+        return value(value.doubleValue());
+    }
+
+    @Override
+    public void flush() throws IOException {
+
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        out.close();
+    }
+
+    /**
+     * Write initial byte with major type and the argument in shortest form
+     */
+    private void head(final int major, final long argument) throws IOException {
+
+        final int type = major << 5;
+        if (argument < 24) {
+
+            out.write(type | (int) argument);
+        } else if (argument < 0x100) {
+
+            out.write(type | 24);
+            out.write((int) argument);
+        } else if (argument < 0x10000) {
+
+            out.write(type | 25);
+            writeBytes(argument, 2);
+        } else if (argument < 0x100000000L) {
+
+            out.write(type | 26);
+            writeBytes(argument, 4);
+        } else {
+
+            out.write(type | 27);
+            writeBytes(argument, 8);
+        }
+    }
+
+    private void writeBytes(final long value, final int count) throws IOException {
+
+        for (int shift = (count - 1) * 8; shift >= 0; shift -= 8) {
+
+            out.write((int) (value >>> shift));
+        }
+    }
+}
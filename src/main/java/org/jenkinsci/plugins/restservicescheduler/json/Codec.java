@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Wire format of messages exchanged with planner
+ *
+ * Messages are written and read through Gson streaming API regardless of the
+ * format so serializers do not need to know what goes over the wire.
+ *
+ * @author ogondza
+ */
+public abstract class Codec {
+
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Text JSON, understood by every planner
+     */
+    public static final Codec JSON = new Codec("application/json") {
+
+        @Override
+        public JsonWriter writer(final OutputStream out) throws IOException {
+
+            final JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, CHARSET));
+            // Keep the escaping Gson used to apply
+            writer.setHtmlSafe(true);
+            return writer;
+        }
+
+        @Override
+        public JsonReader reader(final InputStream in) throws IOException {
+
+            return new JsonReader(new InputStreamReader(in, CHARSET));
+        }
+    };
+
+    /**
+     * Binary JSON equivalent as of RFC 7049
+     */
+    public static final Codec CBOR = new Codec("application/cbor") {
+
+        @Override
+        public JsonWriter writer(final OutputStream out) throws IOException {
+
+            return new CborWriter(out);
+        }
+
+        @Override
+        public JsonReader reader(final InputStream in) throws IOException {
+
+            return new CborReader(in);
+        }
+    };
+
+    private final String mediaType;
+
+    private Codec(final String mediaType) {
+
+        this.mediaType = mediaType;
+    }
+
+    public String mediaType() {
+
+        return mediaType;
+    }
+
+    /**
+     * Writer to stream message to
+     *
+     * Writer needs to be flushed, closing it closes the stream.
+     */
+    public abstract JsonWriter writer(final OutputStream out) throws IOException;
+
+    /**
+     * Reader to read message from
+     */
+    public abstract JsonReader reader(final InputStream in) throws IOException;
+
+    /**
+     * Codec for content type, {@link #JSON} when not known
+     */
+    public static Codec forMediaType(final String mediaType) {
+
+        if (mediaType != null && mediaType.startsWith(CBOR.mediaType)) return CBOR;
+
+        return JSON;
+    }
+
+    @Override
+    public String toString() {
+
+        return mediaType;
+    }
+}
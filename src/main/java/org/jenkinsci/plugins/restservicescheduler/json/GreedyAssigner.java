@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler.json;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+
+/**
+ * Assign items to free executors in-process
+ *
+ * Used in place of remote planner while it is not available. Items are
+ * considered by priority and then by time in queue. Each one keeps the node
+ * it is assigned to as long as it has free executor, otherwise it is
+ * assigned to assignable node with the most free executors left.
+ *
+ * @author ogondza
+ */
+/*package*/ final class GreedyAssigner {
+
+    private static final Comparator<QueueState.Item> ORDER = new Comparator<QueueState.Item>() {
+
+        public int compare(final QueueState.Item lhs, final QueueState.Item rhs) {
+
+            if (lhs.priority != rhs.priority) return lhs.priority > rhs.priority ? -1 : 1;
+
+            if (lhs.inQueueSince != rhs.inQueueSince) return lhs.inQueueSince < rhs.inQueueSince ? -1 : 1;
+
+            return lhs.id - rhs.id;
+        }
+    };
+
+    /*package*/ NodeAssignments assign(final QueueState state) {
+
+        final Map<String, Integer> free = new HashMap<String, Integer>(state.nodes().size());
+        for (final QueueState.NodeState node: state.nodes()) {
+
+            free.put(node.name, node.freeExecutors);
+        }
+
+        final List<QueueState.Item> items = new ArrayList<QueueState.Item>(state.items());
+        Collections.sort(items, ORDER);
+
+        final NodeAssignments.Builder builder = NodeAssignments.builder();
+        for (final QueueState.Item item: items) {
+
+            final String node = pick(item, free);
+            if (node == null) continue;
+
+            free.put(node, free.get(node) - 1);
+            builder.assign(item.id, node);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * @return Node to assign item to or null if all assignable nodes are busy
+     */
+    private String pick(final QueueState.Item item, final Map<String, Integer> free) {
+
+        if (item.assigned != null && freeExecutors(item.assigned, free) > 0) return item.assigned;
+
+        String best = null;
+        int bestFree = 0;
+        for (final String node: item.nodes) {
+
+            final int executors = freeExecutors(node, free);
+            if (executors > bestFree) {
+
+                best = node;
+                bestFree = executors;
+            }
+        }
+
+        return best;
+    }
+
+    private int freeExecutors(final String node, final Map<String, Integer> free) {
+
+        final Integer executors = free.get(node);
+        return executors == null ? 0 : executors;
+    }
+}
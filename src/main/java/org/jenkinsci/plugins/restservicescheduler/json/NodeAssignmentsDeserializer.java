@@ -23,50 +23,131 @@
  */
 package org.jenkinsci.plugins.restservicescheduler.json;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 /**
  * Deserialize incoming json to {@link NodeAssignments}
  *
+ * Solution is read token by token straight into {@link NodeAssignments.Builder}.
+ * Node names are interned so every solution refers to the same instances.
+ *
  * @author ogondza
  */
-public final class NodeAssignmentsDeserializer implements JsonDeserializer<NodeAssignments> {
+public final class NodeAssignmentsDeserializer {
+
+    /**
+     * Forget interned names when there is more than this
+     */
+    private static final int MAX_NAMES = 10000;
+
+    private final ConcurrentMap<String, String> nodeNames = new ConcurrentHashMap<String, String>();
 
-    public NodeAssignments deserialize(
-            final JsonElement json,
-            final Type typeOfT,
-            final JsonDeserializationContext context
-    ) throws JsonParseException {
+    public NodeAssignments deserialize(final JsonReader reader) throws IOException {
 
         final NodeAssignments.Builder builder = NodeAssignments.builder();
 
-        final JsonArray items = json.getAsJsonObject().getAsJsonArray("solution");
-        for (final JsonElement o: items) {
+        try {
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+
+                if ("solution".equals(reader.nextName())) {
 
-            final JsonObject item = o.getAsJsonObject();
+                    deserializeItems(reader, builder);
+                } else {
 
-            final int itemId = item.getAsJsonPrimitive("id").getAsInt();
-            final String nodeName = deserilizeNodeName(item.getAsJsonPrimitive("node").getAsString());
-            builder.assign(itemId, nodeName);
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException ex) {
+
+            // Unexpected token
+            throw new JsonParseException(ex);
+        } catch (NumberFormatException ex) {
+
+            throw new JsonParseException(ex);
         }
 
         return builder.build();
     }
 
-    private String deserilizeNodeName(final String jsonNodeName) {
+    private void deserializeItems(
+            final JsonReader reader, final NodeAssignments.Builder builder
+    ) throws IOException {
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+
+            deserializeItem(reader, builder);
+        }
+        reader.endArray();
+    }
+
+    private void deserializeItem(
+            final JsonReader reader, final NodeAssignments.Builder builder
+    ) throws IOException {
+
+        Integer itemId = null;
+        String nodeName = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+
+            final String name = reader.nextName();
+            if ("id".equals(name)) {
+
+                itemId = reader.nextInt();
+            } else if ("node".equals(name)) {
+
+                nodeName = deserilizeNodeName(reader);
+            } else {
+
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (itemId == null) throw new JsonParseException("Solution item without id");
+
+        builder.assign(itemId, nodeName);
+    }
+
+    private String deserilizeNodeName(final JsonReader reader) throws IOException {
+
+        if (reader.peek() == JsonToken.NULL) {
+
+            reader.nextNull();
+            return null;
+        }
+
+        final String jsonNodeName = reader.nextString();
 
         return Translator.NOT_ASSIGNED.equals(jsonNodeName)
                 ? null
-                : jsonNodeName
+                : intern(jsonNodeName)
         ;
     }
+
+    private String intern(final String name) {
+
+        final String interned = nodeNames.get(name);
+        if (interned != null) return interned;
+
+        if (nodeNames.size() > MAX_NAMES) {
+
+            nodeNames.clear();
+        }
+
+        final String previous = nodeNames.putIfAbsent(name, name);
+        return previous != null ? previous : name;
+    }
 }
@@ -0,0 +1,361 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler.json;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Split captured state into independent partitions
+ *
+ * Items and nodes that items can be assigned to form connected components.
+ * No item of one component can take a node of other one so components can
+ * be planned separately. Components are spread among partitions, the largest
+ * ones first, so partitions are about the same size.
+ *
+ * Components stay in the partition that held their nodes last time so
+ * planners keep working on the same part of the farm. They are spread anew
+ * only once the heaviest partition gets too heavy compared to fresh spread.
+ *
+ * @author ogondza
+ */
+/*package*/ final class Partitioner {
+
+    /**
+     * How much heavier can the heaviest partition be, compared to fresh
+     * spread, before components are moved
+     */
+    /*package*/ static final double IMBALANCE_THRESHOLD = 0.25;
+
+    /*package*/ List<QueueState> partition(final QueueState state, final int count) {
+
+        return partition(state, count, Collections.<QueueState>emptyList());
+    }
+
+    /**
+     * @param previous Partitions sent last time
+     */
+    /*package*/ List<QueueState> partition(
+            final QueueState state, final int count, final List<QueueState> previous
+    ) {
+
+        if (count <= 0) throw new IllegalArgumentException("Partition count has to be positive: " + count);
+
+        final Components components = new Components(state, previous, count);
+
+        final List<Component> sorted = new ArrayList<Component>(components.roots.values());
+        Collections.sort(sorted, LARGEST_FIRST);
+
+        final long fresh = spread(sorted, count, false);
+        if (!previous.isEmpty()) {
+
+            final long sticky = spread(sorted, count, true);
+            if (sticky > fresh * (1 + IMBALANCE_THRESHOLD)) {
+
+                spread(sorted, count, false);
+            }
+        }
+
+        final List<Map<Integer, QueueState.Item>> items = new ArrayList<Map<Integer, QueueState.Item>>(count);
+        final List<Map<String, QueueState.NodeState>> nodes = new ArrayList<Map<String, QueueState.NodeState>>(count);
+        for (int i = 0; i < count; i++) {
+
+            items.add(new LinkedHashMap<Integer, QueueState.Item>());
+            nodes.add(new LinkedHashMap<String, QueueState.NodeState>());
+        }
+
+        // Keep the original order within partitions
+        for (final QueueState.Item item: state.items()) {
+
+            items.get(components.of(item).partition).put(item.id, item);
+        }
+
+        for (final QueueState.NodeState node: state.nodes()) {
+
+            nodes.get(components.of(node.name).partition).put(node.name, node);
+        }
+
+        final List<QueueState> partitions = new ArrayList<QueueState>(count);
+        for (int i = 0; i < count; i++) {
+
+            partitions.add(new QueueState(items.get(i), nodes.get(i)));
+        }
+
+        return partitions;
+    }
+
+    /**
+     * Put components to the lightest partition, the largest first
+     *
+     * @param sticky Keep components in the partition they were in last time
+     * @return Weight of the heaviest partition
+     */
+    private long spread(final List<Component> sorted, final int count, final boolean sticky) {
+
+        final long[] weights = new long[count];
+        if (sticky) {
+
+            for (final Component component: sorted) {
+
+                if (component.previous() >= 0) {
+
+                    component.partition = component.previous();
+                    weights[component.partition] += component.weight();
+                }
+            }
+        }
+
+        for (final Component component: sorted) {
+
+            if (sticky && component.previous() >= 0) continue;
+
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+
+                if (weights[i] < weights[lightest]) {
+
+                    lightest = i;
+                }
+            }
+
+            component.partition = lightest;
+            weights[lightest] += component.weight();
+        }
+
+        long heaviest = 0;
+        for (final long weight: weights) {
+
+            heaviest = Math.max(heaviest, weight);
+        }
+
+        return heaviest;
+    }
+
+    private static final Comparator<Component> LARGEST_FIRST = new Comparator<Component>() {
+
+        public int compare(final Component lhs, final Component rhs) {
+
+            final long lw = lhs.weight();
+            final long rw = rhs.weight();
+            return lw == rw ? 0 : (lw > rw ? -1 : 1);
+        }
+    };
+
+    /**
+     * Union-find of node names, items belong to the component of their nodes
+     */
+    private static final class Components {
+
+        private final Map<String, String> parents = new HashMap<String, String>();
+        private final Map<String, Component> roots = new LinkedHashMap<String, Component>();
+        private final Map<Integer, Component> unassignable = new HashMap<Integer, Component>();
+
+        private Components(final QueueState state, final List<QueueState> previous, final int count) {
+
+            for (final QueueState.NodeState node: state.nodes()) {
+
+                parents.put(node.name, node.name);
+            }
+
+            for (final QueueState.Item item: state.items()) {
+
+                String first = null;
+                for (final String node: item.nodes) {
+
+                    if (!parents.containsKey(node)) continue;
+
+                    if (first == null) {
+
+                        first = node;
+                    } else {
+
+                        union(first, node);
+                    }
+                }
+            }
+
+            for (final QueueState.NodeState node: state.nodes()) {
+
+                final Component component = component(find(node.name));
+                component.nodes++;
+                component.vote(previousPartition(previous, count, node), count);
+            }
+
+            for (final QueueState.Item item: state.items()) {
+
+                final String node = firstNode(item);
+                if (node == null) {
+
+                    // Can not be assigned anywhere, planned on its own
+                    final Component component = new Component();
+                    component.items++;
+                    component.vote(previousPartition(previous, count, item), count);
+                    unassignable.put(item.id, component);
+                    roots.put("#" + item.id, component);
+                } else {
+
+                    component(find(node)).items++;
+                }
+            }
+        }
+
+        private int previousPartition(
+                final List<QueueState> previous, final int count, final QueueState.NodeState node
+        ) {
+
+            for (int i = 0; i < Math.min(count, previous.size()); i++) {
+
+                if (previous.get(i).node(node.name) != null) return i;
+            }
+
+            return -1;
+        }
+
+        private int previousPartition(
+                final List<QueueState> previous, final int count, final QueueState.Item item
+        ) {
+
+            for (int i = 0; i < Math.min(count, previous.size()); i++) {
+
+                if (previous.get(i).item(item.id) != null) return i;
+            }
+
+            return -1;
+        }
+
+        private Component of(final QueueState.Item item) {
+
+            final String node = firstNode(item);
+            return node == null ? unassignable.get(item.id) : of(node);
+        }
+
+        private Component of(final String node) {
+
+            return roots.get(find(node));
+        }
+
+        private String firstNode(final QueueState.Item item) {
+
+            for (final String node: item.nodes) {
+
+                if (parents.containsKey(node)) return node;
+            }
+
+            return null;
+        }
+
+        private Component component(final String root) {
+
+            Component component = roots.get(root);
+            if (component == null) {
+
+                component = new Component();
+                roots.put(root, component);
+            }
+
+            return component;
+        }
+
+        private String find(String node) {
+
+            String parent = parents.get(node);
+            while (!parent.equals(node)) {
+
+                // Path halving
+                final String grandParent = parents.get(parent);
+                parents.put(node, grandParent);
+                node = grandParent;
+                parent = parents.get(node);
+            }
+
+            return node;
+        }
+
+        private void union(final String lhs, final String rhs) {
+
+            final String lroot = find(lhs);
+            final String rroot = find(rhs);
+            if (!lroot.equals(rroot)) {
+
+                parents.put(rroot, lroot);
+            }
+        }
+    }
+
+    private static final class Component {
+
+        private int items = 0;
+        private int nodes = 0;
+        private int partition;
+
+        /**
+         * Number of nodes each partition held last time
+         */
+        private int[] votes;
+
+        private void vote(final int partition, final int count) {
+
+            if (partition < 0) return;
+
+            if (votes == null) {
+
+                votes = new int[count];
+            }
+
+            votes[partition]++;
+        }
+
+        /**
+         * Partition that held most of the nodes last time, -1 if none
+         */
+        private int previous() {
+
+            if (votes == null) return -1;
+
+            int previous = 0;
+            for (int i = 1; i < votes.length; i++) {
+
+                if (votes[i] > votes[previous]) {
+
+                    previous = i;
+                }
+            }
+
+            return previous;
+        }
+
+        /**
+         * Planning cost grows with both items and nodes
+         */
+        private long weight() {
+
+            return (long) (items + 1) * (nodes + 1);
+        }
+    }
+}
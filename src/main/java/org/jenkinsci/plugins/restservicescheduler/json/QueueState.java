@@ -0,0 +1,366 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler.json;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable capture of the state sent to remote planner
+ *
+ * Queue items refers to nodes by name so the change of node can be told apart
+ * from the change of an item.
+ *
+ * @author ogondza
+ */
+public final class QueueState {
+
+    private static final long INITIAL_FINGERPRINT = 0xcbf29ce484222325L;
+
+    private final Map<Integer, Item> items;
+    private final Map<String, NodeState> nodes;
+    /**
+     * Number of items assignable to each node
+     */
+    private final Map<String, Integer> references;
+    private final long fingerprint;
+
+    /*package*/ QueueState(final Map<Integer, Item> items, final Map<String, NodeState> nodes) {
+
+        this.items = Collections.unmodifiableMap(new LinkedHashMap<Integer, Item>(items));
+        this.nodes = Collections.unmodifiableMap(new LinkedHashMap<String, NodeState>(nodes));
+        this.references = new HashMap<String, Integer>();
+
+        long fingerprint = 0;
+        for (final Item item: items.values()) {
+
+            fingerprint += item.fingerprint();
+            reference(item, references);
+        }
+
+        for (final NodeState node: nodes.values()) {
+
+            fingerprint += node.fingerprint();
+        }
+
+        this.fingerprint = fingerprint;
+    }
+
+    private QueueState(
+            final Map<Integer, Item> items,
+            final Map<String, NodeState> nodes,
+            final Map<String, Integer> references,
+            final long fingerprint
+    ) {
+
+        this.items = Collections.unmodifiableMap(items);
+        this.nodes = Collections.unmodifiableMap(nodes);
+        this.references = references;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * State with items and nodes added, replaced or removed
+     *
+     * Nodes no remaining item is assignable to are dropped so the result
+     * equals the state captured at once. Fingerprint is updated for the
+     * difference only.
+     *
+     * @param changed Items added or changed
+     * @param removed Ids of items to remove
+     * @param changedNodes Nodes added or changed
+     */
+    /*package*/ QueueState with(
+            final Collection<Item> changed,
+            final Collection<Integer> removed,
+            final Collection<NodeState> changedNodes
+    ) {
+
+        final Map<Integer, Item> items = new LinkedHashMap<Integer, Item>(this.items);
+        final Map<String, NodeState> nodes = new LinkedHashMap<String, NodeState>(this.nodes);
+        final Map<String, Integer> references = new HashMap<String, Integer>(this.references);
+        final Set<String> released = new HashSet<String>();
+        long fingerprint = this.fingerprint;
+
+        for (final Integer id: removed) {
+
+            final Item old = items.remove(id);
+            if (old != null) {
+
+                fingerprint -= old.fingerprint();
+                release(old, references, released);
+            }
+        }
+
+        for (final Item item: changed) {
+
+            final Item old = items.put(item.id, item);
+            if (old != null) {
+
+                fingerprint -= old.fingerprint();
+                release(old, references, released);
+            }
+
+            fingerprint += item.fingerprint();
+            reference(item, references);
+        }
+
+        for (final NodeState node: changedNodes) {
+
+            final NodeState old = nodes.put(node.name, node);
+            if (old != null) {
+
+                fingerprint -= old.fingerprint();
+            }
+
+            fingerprint += node.fingerprint();
+            released.add(node.name);
+        }
+
+        for (final String name: released) {
+
+            final NodeState old = references.containsKey(name)
+                    ? null
+                    : nodes.remove(name)
+            ;
+            if (old != null) {
+
+                fingerprint -= old.fingerprint();
+            }
+        }
+
+        return new QueueState(items, nodes, references, fingerprint);
+    }
+
+    private static void reference(final Item item, final Map<String, Integer> references) {
+
+        for (final String node: item.nodes) {
+
+            final Integer count = references.get(node);
+            references.put(node, count == null ? 1 : count + 1);
+        }
+    }
+
+    private static void release(
+            final Item item, final Map<String, Integer> references, final Set<String> released
+    ) {
+
+        for (final String node: item.nodes) {
+
+            final Integer count = references.get(node);
+            if (count != null && count > 1) {
+
+                references.put(node, count - 1);
+            } else if (count != null) {
+
+                references.remove(node);
+                released.add(node);
+            }
+        }
+    }
+
+    /**
+     * Cheap hash of item ids, assignable nodes, assigned node and executors
+     *
+     * States with different fingerprint are guaranteed to differ, states with
+     * the same fingerprint need not be equal. Order of items and nodes does not
+     * matter so incrementally updated state has the same fingerprint as the
+     * one captured at once.
+     */
+    public long fingerprint() {
+
+        return fingerprint;
+    }
+
+    /**
+     * Same items and nodes, fingerprint is compared first
+     */
+    @Override
+    public boolean equals(final Object rhs) {
+
+        if (this == rhs) return true;
+        if (!(rhs instanceof QueueState)) return false;
+
+        final QueueState other = (QueueState) rhs;
+        return fingerprint == other.fingerprint
+                && items.equals(other.items)
+                && nodes.equals(other.nodes)
+        ;
+    }
+
+    @Override
+    public int hashCode() {
+
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+
+    /**
+     * Add value to fingerprint (FNV-1a)
+     */
+    private static long fnv(final long hash, final long value) {
+
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    private static long fnv(final long hash, final String value) {
+
+        return fnv(hash, value == null ? 0 : value.hashCode());
+    }
+
+    /*package*/ Collection<Item> items() {
+
+        return items.values();
+    }
+
+    /*package*/ Item item(final int id) {
+
+        return items.get(id);
+    }
+
+    /*package*/ Collection<NodeState> nodes() {
+
+        return nodes.values();
+    }
+
+    /*package*/ NodeState node(final String name) {
+
+        return nodes.get(name);
+    }
+
+    public int size() {
+
+        return items.size();
+    }
+
+    /*package*/ static final class Item {
+
+        /*package*/ final int id;
+        /*package*/ final int priority;
+        /*package*/ final long inQueueSince;
+        /*package*/ final String name;
+        /*package*/ final List<String> nodes;
+        /*package*/ final String assigned;
+
+        /*package*/ Item(
+                final int id,
+                final int priority,
+                final long inQueueSince,
+                final String name,
+                final List<String> nodes,
+                final String assigned
+        ) {
+
+            this.id = id;
+            this.priority = priority;
+            this.inQueueSince = inQueueSince;
+            this.name = name;
+            // Shared by items with the same assignable nodes
+            this.nodes = nodes;
+            this.assigned = assigned;
+        }
+
+        private long fingerprint() {
+
+            long fingerprint = fnv(INITIAL_FINGERPRINT, id);
+            for (final String node: nodes) {
+
+                fingerprint = fnv(fingerprint, node);
+            }
+            return fnv(fingerprint, assigned);
+        }
+
+        @Override
+        public boolean equals(final Object rhs) {
+
+            if (this == rhs) return true;
+            if (!(rhs instanceof Item)) return false;
+
+            final Item other = (Item) rhs;
+            return id == other.id
+                    && priority == other.priority
+                    && inQueueSince == other.inQueueSince
+                    && equal(name, other.name)
+                    && nodes.equals(other.nodes)
+                    && equal(assigned, other.assigned)
+            ;
+        }
+
+        @Override
+        public int hashCode() {
+
+            return 31 * id + nodes.hashCode();
+        }
+    }
+
+    /*package*/ static final class NodeState {
+
+        /*package*/ final String name;
+        /*package*/ final int executors;
+        /*package*/ final int freeExecutors;
+
+        /*package*/ NodeState(final String name, final int executors, final int freeExecutors) {
+
+            this.name = name;
+            this.executors = executors;
+            this.freeExecutors = freeExecutors;
+        }
+
+        private long fingerprint() {
+
+            long fingerprint = fnv(INITIAL_FINGERPRINT, name);
+            fingerprint = fnv(fingerprint, executors);
+            return fnv(fingerprint, freeExecutors);
+        }
+
+        @Override
+        public boolean equals(final Object rhs) {
+
+            if (this == rhs) return true;
+            if (!(rhs instanceof NodeState)) return false;
+
+            final NodeState other = (NodeState) rhs;
+            return name.equals(other.name)
+                    && executors == other.executors
+                    && freeExecutors == other.freeExecutors
+            ;
+        }
+
+        @Override
+        public int hashCode() {
+
+            return name.hashCode();
+        }
+    }
+
+    private static boolean equal(final Object lhs, final Object rhs) {
+
+        return lhs == null ? rhs == null : lhs.equals(rhs);
+    }
+}
@@ -27,71 +27,497 @@ import hudson.model.Computer;
 import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.Queue;
-import hudson.model.Queue.BuildableItem;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.jenkinsci.plugins.restservicescheduler.Metrics;
+import org.jenkinsci.plugins.restservicescheduler.json.QueueState.Item;
+import org.jenkinsci.plugins.restservicescheduler.json.QueueState.NodeState;
 import org.jenkinsci.plugins.restservicescheduler.json.Translator.Snapshot;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Capture {@link Snapshot} as {@link QueueState} and stream it to {@link JsonWriter}
+ *
+ * Holds no per snapshot state so it is safe to capture and serialize
+ * concurrently. Caches of a single capture live in {@link Capture}.
+ *
+ * @author ogondza
+ */
+/*package*/ final class SnapshotSerializer {
+
+    /**
+     * Queues with fewer items are always evaluated sequentially
+     */
+    private static final int MIN_CHUNK = 16;
+
+    private static final int OFFLINE = -1;
+
+    private static final Metrics metrics = Metrics.get();
+
+    private static final QueueItemSerializer itemSerializer = new QueueItemSerializer();
+    private static final NodeSerializer nodeSerializer = new NodeSerializer();
+
+    /**
+     * Evaluates {@link Node#canTake(hudson.model.Queue.BuildableItem)} in parallel, null to evaluate sequentially
+     */
+    private final ExecutorService pool;
+    private final int parallelism;
+
+    /*package*/ SnapshotSerializer() {
+
+        this(null, 1);
+    }
+
+    /**
+     * @param pool Executor to evaluate assignable nodes, null to evaluate sequentially
+     * @param parallelism Number of threads of the pool
+     */
+    /*package*/ SnapshotSerializer(final ExecutorService pool, final int parallelism) {
+
+        this.pool = pool;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Capture whole state
+     *
+     * Items, their labels and the state of nodes are read at once while
+     * holding the snapshot lock so they are consistent. Assignable nodes are
+     * evaluated after the lock is released.
+     */
+    public QueueState capture(final Snapshot src) {
+
+        final Capture capture = new Capture(src);
+
+        final List<Entry> queue;
+        final long start = System.nanoTime();
+        synchronized (src.lock()) {
+
+            final Collection<Queue.BuildableItem> items = src.stateProvider().getQueue();
+            queue = new ArrayList<Entry>(items.size());
+            for (final Queue.BuildableItem item: items) {
+
+                queue.add(capture.read(item));
+            }
+        }
+        metrics.histogram("snapshot lock held", "ms").record(Metrics.millisSince(start));
+
+        final List<BitSet> assignableNodes = assignableNodes(capture, queue);
+
+        final Map<Integer, Item> items = new LinkedHashMap<Integer, Item>();
+        final Map<String, NodeState> nodes = new LinkedHashMap<String, NodeState>();
+        for (int i = 0; i < queue.size(); i++) {
+
+            final Item item = capture.item(queue.get(i), assignableNodes.get(i), nodes);
+            items.put(item.id, item);
+        }
+
+        return new QueueState(items, nodes);
+    }
+
+    /**
+     * Assignable nodes of items in the same order
+     *
+     * Online candidates were resolved by the calling thread so the caches are
+     * not modified, {@link Node#canTake(hudson.model.Queue.BuildableItem)} is
+     * evaluated in parallel if there is a pool.
+     */
+    private List<BitSet> assignableNodes(final Capture capture, final List<Entry> queue) {
+
+        if (pool == null || queue.size() <= MIN_CHUNK) {
+
+            return filterTakers(capture, queue, 0, queue.size());
+        }
+
+        // Several chunks per thread so threads can balance uneven chunks
+        final int chunk = Math.max(MIN_CHUNK, (queue.size() + parallelism * 4 - 1) / (parallelism * 4));
+        final List<Future<List<BitSet>>> chunks = new ArrayList<Future<List<BitSet>>>();
+        for (int start = 0; start < queue.size(); start += chunk) {
+
+            final int from = start;
+            final int to = Math.min(start + chunk, queue.size());
+            chunks.add(pool.submit(new Callable<List<BitSet>>() {
+
+                public List<BitSet> call() {
+
+                    return filterTakers(capture, queue, from, to);
+                }
+            }));
+        }
+
+        final List<BitSet> assignable = new ArrayList<BitSet>(queue.size());
+        for (final Future<List<BitSet>> future: chunks) {
+
+            final int from = assignable.size();
+            final int to = Math.min(from + chunk, queue.size());
+            assignable.addAll(await(future, capture, queue, from, to));
+        }
+
+        return assignable;
+    }
+
+    private List<BitSet> await(
+            final Future<List<BitSet>> future,
+            final Capture capture,
+            final List<Entry> queue,
+            final int from,
+            final int to
+    ) {
+
+        try {
 
-/*package*/ final class SnapshotSerializer implements JsonSerializer<Snapshot> {
+            return future.get();
+        } catch (InterruptedException ex) {
 
-    private final Gson gson = new GsonBuilder()
-            .registerTypeHierarchyAdapter(Queue.BuildableItem.class, this.new QueueItemSerializer())
-            .registerTypeHierarchyAdapter(Node.class, this.new NodeSerializer())
-            .setPrettyPrinting()
-            .serializeNulls()
-            .create()
-    ;
+            // Finish on this thread
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
 
-    private Snapshot snapshot;
+            final Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
 
-    public JsonElement serialize(
+            throw new AssertionError(cause);
+        }
+
+        future.cancel(false);
+        return filterTakers(capture, queue, from, to);
+    }
+
+    private List<BitSet> filterTakers(
+            final Capture capture,
+            final List<Entry> queue,
+            final int from,
+            final int to
+    ) {
+
+        final List<BitSet> assignable = new ArrayList<BitSet>(to - from);
+        for (int i = from; i < to; i++) {
+
+            final Entry entry = queue.get(i);
+            assignable.add(capture.takers(entry.item, entry.candidates));
+        }
+
+        return assignable;
+    }
+
+    /**
+     * Apply changes to previously captured state
+     *
+     * Only the changed items and nodes are captured. Nodes assignable to
+     * changed items are captured again as well.
+     *
+     * @param previous State to apply changes to
+     * @param src Current state
+     * @param changed Items that entered the queue or changed
+     * @param removed Ids of items that left the queue
+     * @param changedNodes Nodes whose executors changed
+     */
+    public QueueState apply(
+            final QueueState previous,
             final Snapshot src,
-            final Type typeOfSrc,
-            final JsonSerializationContext context
+            final Collection<Queue.BuildableItem> changed,
+            final Collection<Integer> removed,
+            final Collection<Node> changedNodes
     ) {
 
-        this.snapshot = src;
+        final Capture capture = new Capture(src);
+
+        final Map<String, NodeState> nodes = new LinkedHashMap<String, NodeState>();
+        final List<Item> items = new ArrayList<Item>(changed.size());
+        // Only few items and nodes are read, all of them under the lock
+        final long start = System.nanoTime();
+        synchronized (src.lock()) {
+
+            for (final Node node: changedNodes) {
+
+                final int index = capture.index(node);
+                if (index == OFFLINE) continue;
+
+                final NodeState state = capture.indexedStates.get(index);
+                // Only nodes planner knows about
+                if (previous.node(state.name) != null) {
+
+                    nodes.put(state.name, state);
+                }
+            }
+
+            for (final Queue.BuildableItem queueItem: changed) {
+
+                items.add(capture.item(queueItem, nodes));
+            }
+        }
+        metrics.histogram("snapshot lock held", "ms").record(Metrics.millisSince(start));
+
+        return previous.with(items, removed, nodes.values());
+    }
 
-        final JsonObject jsonQueue = new JsonObject();
+    /**
+     * Write the whole queue
+     */
+    public void serialize(final QueueState state, final JsonWriter writer) throws IOException {
 
-        final JsonElement queue = gson.toJsonTree(src.stateProvider().getQueue());
-        jsonQueue.add("queue", queue);
+        writer.beginObject();
+        writer.name("queue").beginArray();
+        for (final Item item: state.items()) {
 
-        return jsonQueue;
+            itemSerializer.serialize(item, state, writer);
+        }
+        writer.endArray();
+        writer.endObject();
     }
 
-    private final class QueueItemSerializer implements JsonSerializer<Queue.BuildableItem> {
+    /**
+     * Write the whole queue listing each node once
+     */
+    public void serializeDictionary(final QueueState state, final JsonWriter writer) throws IOException {
+
+        final Map<String, Integer> indexes = new HashMap<String, Integer>(state.nodes().size());
+
+        writer.beginObject();
+
+        writer.name("nodes").beginArray();
+        for (final NodeState node: state.nodes()) {
+
+            indexes.put(node.name, indexes.size());
+            nodeSerializer.serialize(node, writer);
+        }
+        writer.endArray();
+
+        writer.name("queue").beginArray();
+        for (final Item item: state.items()) {
+
+            itemSerializer.serializeIndexed(item, indexes, writer);
+        }
+        writer.endArray();
+
+        writer.endObject();
+    }
 
-        public JsonElement serialize(
-                final BuildableItem item,
-                final Type typeOfSrc,
-                final JsonSerializationContext context
+    /**
+     * Write items and nodes that differ from previous state
+     */
+    public void serializeDelta(
+            final QueueState previous, final QueueState current, final JsonWriter writer
+    ) throws IOException {
+
+        writer.beginObject();
+
+        writer.name("items").beginArray();
+        for (final Item item: current.items()) {
+
+            if (!item.equals(previous.item(item.id))) {
+
+                itemSerializer.serializeReference(item, writer);
+            }
+        }
+        writer.endArray();
+
+        writer.name("removed").beginArray();
+        for (final Item item: previous.items()) {
+
+            if (current.item(item.id) == null) {
+
+                writer.value(item.id);
+            }
+        }
+        writer.endArray();
+
+        writer.name("nodes").beginArray();
+        for (final NodeState node: current.nodes()) {
+
+            if (!node.equals(previous.node(node.name))) {
+
+                nodeSerializer.serialize(node, writer);
+            }
+        }
+        writer.endArray();
+
+        writer.name("removedNodes").beginArray();
+        for (final NodeState node: previous.nodes()) {
+
+            if (current.node(node.name) == null) {
+
+                writer.value(node.name);
+            }
+        }
+        writer.endArray();
+
+        writer.endObject();
+    }
+
+    private static final class QueueItemSerializer {
+
+        public void serialize(
+                final Item item, final QueueState state, final JsonWriter writer
+        ) throws IOException {
+
+            writer.beginObject();
+            writeAttributes(item, writer);
+
+            writer.name("nodes").beginArray();
+            for (final String node: item.nodes) {
+
+                nodeSerializer.serialize(state.node(node), writer);
+            }
+            writer.endArray();
+
+            writer.name("assigned").value(item.assigned);
+            writer.endObject();
+        }
+
+        /**
+         * Write item referring assignable nodes by name
+         */
+        public void serializeReference(final Item item, final JsonWriter writer) throws IOException {
+
+            writer.beginObject();
+            writeAttributes(item, writer);
+
+            writer.name("nodes").beginArray();
+            for (final String node: item.nodes) {
+
+                writer.value(node);
+            }
+            writer.endArray();
+
+            writer.name("assigned").value(item.assigned);
+            writer.endObject();
+        }
+
+        /**
+         * Write item referring assignable nodes by index in node dictionary
+         */
+        public void serializeIndexed(
+                final Item item, final Map<String, Integer> indexes, final JsonWriter writer
+        ) throws IOException {
+
+            writer.beginObject();
+            writeAttributes(item, writer);
+
+            writer.name("nodes").beginArray();
+            for (final String node: item.nodes) {
+
+                writer.value(indexes.get(node));
+            }
+            writer.endArray();
+
+            writer.name("assigned");
+            if (item.assigned == null) {
+
+                writer.nullValue();
+            } else {
+
+                writer.value(indexes.get(item.assigned));
+            }
+            writer.endObject();
+        }
+
+        private void writeAttributes(final Item item, final JsonWriter writer) throws IOException {
+
+            writer.name("id").value(item.id);
+            writer.name("priority").value(item.priority);
+            writer.name("inQueueSince").value(item.inQueueSince);
+            writer.name("name").value(item.name);
+        }
+    }
+
+    /**
+     * Caches of a single capture, the state of labels and nodes is resolved only once
+     *
+     * Online nodes are indexed and sets of nodes are kept as masks of indexes.
+     */
+    private static final class Capture {
+
+        private final Snapshot snapshot;
+
+        private final Map<Node, Integer> nodeIndex = new IdentityHashMap<Node, Integer>();
+        private final List<Node> indexedNodes = new ArrayList<Node>();
+        private final List<NodeState> indexedStates = new ArrayList<NodeState>();
+        private final Map<String, Integer> nameIndex = new HashMap<String, Integer>();
+        private final Map<Label, BitSet> labelCandidates = new HashMap<Label, BitSet>();
+        private BitSet unlabeledCandidates;
+
+        /**
+         * Names of assignable nodes shared by items with the same mask
+         */
+        private final Map<BitSet, List<String>> maskNames = new HashMap<BitSet, List<String>>();
+
+        private Capture(final Snapshot snapshot) {
+
+            this.snapshot = snapshot;
+        }
+
+        private Item item(final Queue.BuildableItem item, final Map<String, NodeState> nodeStates) {
+
+            final Entry entry = read(item);
+            return item(entry, takers(item, entry.candidates), nodeStates);
+        }
+
+        /**
+         * Read what is needed from live item, resolving its candidate nodes
+         */
+        private Entry read(final Queue.BuildableItem item) {
+
+            return new Entry(
+                    item,
+                    item.getInQueueSince(),
+                    item.task.getDisplayName(),
+                    onlineCandidates(item.getAssignedLabel()),
+                    snapshot.assignments().nodeName(item)
+            );
+        }
+
+        private Item item(
+                final Entry entry,
+                final BitSet assignableNodes,
+                final Map<String, NodeState> nodeStates
         ) {
 
-            final JsonObject json = new JsonObject();
+            return new Item(
+                    entry.item.id,
+                    priority(entry.item),
+                    entry.inQueueSince,
+                    entry.name,
+                    nodeNames(assignableNodes, nodeStates),
+                    assignedNode(entry.assignedTo, assignableNodes)
+            );
+        }
+
+        /**
+         * Names of nodes in mask, the same instance for the same mask
+         */
+        private List<String> nodeNames(final BitSet mask, final Map<String, NodeState> nodeStates) {
 
-            json.addProperty("id", item.id);
-            json.addProperty("priority", priority(item));
-            json.addProperty("inQueueSince", item.getInQueueSince());
-            json.addProperty("name", item.task.getDisplayName());
+            List<String> names = maskNames.get(mask);
+            if (names != null) return names;
 
-            final List<Node> assignableNodes = assignableNodes(item);
-            json.add("nodes", gson.toJsonTree(assignableNodes));
+            names = new ArrayList<String>(mask.cardinality());
+            for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) {
 
-            json.addProperty("assigned", assignedNode(item, assignableNodes));
+                final NodeState state = indexedStates.get(i);
+                names.add(state.name);
+                nodeStates.put(state.name, state);
+            }
 
-            return json;
+            names = Collections.unmodifiableList(names);
+            maskNames.put(mask, names);
+            return names;
         }
 
         private int priority(final Queue.BuildableItem item) {
@@ -99,68 +525,158 @@ import com.google.gson.JsonSerializer;
             return 50;
         }
 
-        private List<Node> assignableNodes(final Queue.BuildableItem item) {
+        /**
+         * Candidates that can take the item
+         *
+         * Safe to call from several threads once candidates are resolved.
+         */
+        private BitSet takers(final Queue.BuildableItem item, final BitSet candidates) {
 
-            final Label label = item.getAssignedLabel();
+            final BitSet takers = new BitSet(indexedNodes.size());
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
 
-            final Collection<Node> nodeCandidates = (label != null && label.getNodes() != null)
-                    ? label.getNodes()
-                    : snapshot.stateProvider().getNodes()
-            ;
+                if (indexedNodes.get(i).canTake(item) == null) {
 
-            final List<Node> nodes = new ArrayList<Node>(nodeCandidates.size());
-            for(final Node node: nodeCandidates) {
+                    takers.set(i);
+                }
+            }
+
+            // Share the mask when nothing was filtered out
+            return takers.equals(candidates) ? candidates : takers;
+        }
 
-                if (nodeApplicable(item, node)) {
+        /**
+         * Online nodes for label resolved once per snapshot
+         */
+        private BitSet onlineCandidates(final Label label) {
 
-                    nodes.add(node);
-                }
+            if (label == null) return unlabeledCandidates();
+
+            BitSet candidates = labelCandidates.get(label);
+            if (candidates == null) {
+
+                final Collection<Node> labelNodes = label.getNodes();
+                candidates = labelNodes != null
+                        ? onlineNodes(labelNodes)
+                        : unlabeledCandidates()
+                ;
+                labelCandidates.put(label, candidates);
             }
 
-            return nodes;
+            return candidates;
+        }
+
+        private BitSet unlabeledCandidates() {
+
+            if (unlabeledCandidates == null) {
+
+                unlabeledCandidates = onlineNodes(snapshot.stateProvider().getNodes());
+            }
+
+            return unlabeledCandidates;
         }
 
-        private boolean nodeApplicable(Queue.BuildableItem item, final Node node) {
+        private BitSet onlineNodes(final Collection<Node> nodeCandidates) {
+
+            final BitSet nodes = new BitSet();
+            for (final Node node: nodeCandidates) {
+
+                final int index = index(node);
+                if (index != OFFLINE) {
+
+                    nodes.set(index);
+                }
+            }
 
-            return isOnline(node) && node.canTake(item) == null;
+            return nodes;
         }
 
-        private boolean isOnline(final Node node) {
+        /**
+         * Index of online node, its state is captured once per snapshot
+         *
+         * @return Index or {@link #OFFLINE}
+         */
+        private int index(final Node node) {
+
+            final Integer known = nodeIndex.get(node);
+            if (known != null) return known;
 
             final Computer computer = node.toComputer();
-            return computer != null && !computer.isOffline() && computer.isAcceptingTasks();
+            final boolean online = computer != null && !computer.isOffline() && computer.isAcceptingTasks();
+
+            int index = OFFLINE;
+            if (online) {
+
+                index = indexedNodes.size();
+                final NodeState state = nodeSerializer.capture(getName(node), node);
+                indexedNodes.add(node);
+                indexedStates.add(state);
+                nameIndex.put(state.name, index);
+            }
+
+            nodeIndex.put(node, index);
+            return index;
         }
 
-        private String assignedNode(final Queue.BuildableItem item, final List<Node> nodes) {
+        private String assignedNode(final String assignedTo, final BitSet nodes) {
 
-            final String assignedTo = snapshot.assignments().nodeName(item);
+            if (assignedTo == null) return null;
 
-            for (final Node node: nodes) {
+            final Integer index = nameIndex.get(assignedTo);
 
-                if (getName(node).equals(assignedTo)) return assignedTo;
-            }
+            // currently assigned node might no longer be assignable
+            return index != null && nodes.get(index)
+                    ? indexedStates.get(index).name
+                    : null
+            ;
+        }
+    }
 
-            // currently assigned node is no longer assignable
-            return null;
+    /**
+     * Item as read under the lock
+     */
+    private static final class Entry {
+
+        private final Queue.BuildableItem item;
+        private final long inQueueSince;
+        private final String name;
+        private final BitSet candidates;
+        private final String assignedTo;
+
+        private Entry(
+                final Queue.BuildableItem item,
+                final long inQueueSince,
+                final String name,
+                final BitSet candidates,
+                final String assignedTo
+        ) {
+
+            this.item = item;
+            this.inQueueSince = inQueueSince;
+            this.name = name;
+            this.candidates = candidates;
+            this.assignedTo = assignedTo;
         }
     }
 
-    private final class NodeSerializer implements JsonSerializer<Node> {
+    private static final class NodeSerializer {
 
-        public JsonElement serialize(
-                final Node src, final Type typeOfSrc, final JsonSerializationContext context
-        ) {
+        public NodeState capture(final String name, final Node src) {
+
+            return new NodeState(name, src.getNumExecutors(), src.toComputer().countIdle());
+        }
 
-            final JsonObject node = new JsonObject();
-            node.addProperty("name", getName(src));
-            node.addProperty("executors", src.getNumExecutors());
-            node.addProperty("freeExecutors", src.toComputer().countIdle());
+        public void serialize(final NodeState src, final JsonWriter writer) throws IOException {
 
-            return node;
+            writer.beginObject();
+            writer.name("name").value(src.name);
+            writer.name("executors").value(src.executors);
+            writer.name("freeExecutors").value(src.freeExecutors);
+            writer.endObject();
         }
     }
 
-    private String getName(final Node node) {
+    private static String getName(final Node node) {
 
         return node.getSelfLabel().toString();
     }
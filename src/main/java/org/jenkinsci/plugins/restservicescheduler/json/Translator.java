@@ -23,30 +23,73 @@
  */
 package org.jenkinsci.plugins.restservicescheduler.json;
 
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.model.Jenkins;
+
 import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
 import org.jenkinsci.plugins.externalscheduler.StateProvider;
 import org.jenkinsci.plugins.restservicescheduler.Score;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * Translate objects to JSON and back
  *
+ * Streamed messages can be written and read in any {@link Codec}.
+ * Safe to use from several threads at once, nothing but thread-safe caches
+ * is shared between calls.
+ *
  * @author ogondza
  */
 public final class Translator {
 
     /*package*/ static final String NOT_ASSIGNED = "not-assigned";
 
+    private static final String CHARSET = "UTF-8";
+
     private static final Gson gson = new GsonBuilder()
-            .registerTypeAdapter(NodeAssignments.class, new NodeAssignmentsDeserializer())
-            .registerTypeAdapter(Snapshot.class, new SnapshotSerializer())
-            .setPrettyPrinting()
-            .serializeNulls()
             .create()
     ;
 
+    private static final NodeAssignmentsDeserializer assignmentsDeserializer = new NodeAssignmentsDeserializer();
+
+    private static final GreedyAssigner greedyAssigner = new GreedyAssigner();
+
+    private static final Partitioner partitioner = new Partitioner();
+
+    /**
+     * Number of threads evaluating assignable nodes, sequential unless greater than 1
+     */
+    private static final int PARALLELISM = Integer.getInteger(
+            Translator.class.getName() + ".parallelism", 1
+    );
+
+    private static final SnapshotSerializer snapshotSerializer = PARALLELISM > 1
+            ? new SnapshotSerializer(pool(PARALLELISM), PARALLELISM)
+            : new SnapshotSerializer()
+    ;
+
     /**
      * Extract score message
      *
@@ -57,6 +100,27 @@ public final class Translator {
         return gson.fromJson(score, Score.class);
     }
 
+    /**
+     * Extract score message
+     *
+     * @param score JSON score stream, not closed
+     */
+    public Score extractScore(final InputStream score) throws IOException {
+
+        return gson.fromJson(new InputStreamReader(score, CHARSET), Score.class);
+    }
+
+    /**
+     * Extract score message
+     *
+     * @param score Score stream, not closed
+     * @param codec Format of the message
+     */
+    public Score extractScore(final InputStream score, final Codec codec) throws IOException {
+
+        return gson.fromJson(codec.reader(score), Score.class);
+    }
+
     /**
      * Extract assignments from solution message
      *
@@ -65,7 +129,38 @@ public final class Translator {
      */
     public NodeAssignments extractAssignments(final String solution) {
 
-        return gson.fromJson(solution, NodeAssignments.class);
+        try {
+
+            return assignmentsDeserializer.deserialize(new JsonReader(new StringReader(solution)));
+        } catch (IOException ex) {
+
+            throw new JsonParseException(ex);
+        }
+    }
+
+    /**
+     * Extract assignments from solution message
+     *
+     * @param solution JSON solution stream, not closed
+     * @return Updated assignments
+     */
+    public NodeAssignments extractAssignments(final InputStream solution) throws IOException {
+
+        return extractAssignments(solution, Codec.JSON);
+    }
+
+    /**
+     * Extract assignments from solution message
+     *
+     * @param solution Solution stream, not closed
+     * @param codec Format of the message
+     * @return Updated assignments
+     */
+    public NodeAssignments extractAssignments(
+            final InputStream solution, final Codec codec
+    ) throws IOException {
+
+        return assignmentsDeserializer.deserialize(codec.reader(solution));
     }
 
     /**
@@ -79,21 +174,305 @@ public final class Translator {
             final StateProvider stateProvider, final NodeAssignments assignments
     ) {
 
-        return gson.toJson(new Snapshot(stateProvider, assignments));
+        final StringWriter out = new StringWriter();
+        final JsonWriter writer = jsonWriter(out);
+        writer.setIndent("  ");
+
+        try {
+
+            snapshotSerializer.serialize(capture(stateProvider, assignments), writer);
+            writer.flush();
+        } catch (IOException ex) {
+
+            throw new AssertionError("StringWriter failed: " + ex.getMessage());
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * Stream current state as compact JSON
+     *
+     * Same data as {@link #buildQuery(StateProvider, NodeAssignments)} but no
+     * intermediate String is created. The stream is flushed but not closed.
+     *
+     * @param stateProvider Current state
+     * @param assignments Latest assignments
+     * @param out Stream to write JSON query to
+     */
+    public void writeQuery(
+            final StateProvider stateProvider,
+            final NodeAssignments assignments,
+            final OutputStream out
+    ) throws IOException {
+
+        writeQuery(capture(stateProvider, assignments), out);
+    }
+
+    /**
+     * Capture current state to be sent
+     *
+     * @param stateProvider Current state
+     * @param assignments Latest assignments
+     * @return Immutable state
+     */
+    public QueueState capture(
+            final StateProvider stateProvider, final NodeAssignments assignments
+    ) {
+
+        return snapshotSerializer.capture(new Snapshot(stateProvider, assignments, queueLock()));
+    }
+
+    /**
+     * Assign items of captured state to free executors without remote planner
+     *
+     * @param state Captured state
+     * @return Assignments of items that can start right away
+     */
+    public NodeAssignments assignLocally(final QueueState state) {
+
+        return greedyAssigner.assign(state);
+    }
+
+    /**
+     * Split captured state into partitions that can be planned independently
+     *
+     * @param state Captured state
+     * @param count Number of partitions, some of them can be empty
+     * @return Partitions in stable order
+     */
+    public List<QueueState> partition(final QueueState state, final int count) {
+
+        return partitioner.partition(state, count);
+    }
+
+    /**
+     * Split captured state keeping components in partitions they were in
+     *
+     * @param previous Partitions sent last time
+     * @see #partition(QueueState, int)
+     */
+    public List<QueueState> partition(
+            final QueueState state, final int count, final List<QueueState> previous
+    ) {
+
+        return partitioner.partition(state, count, previous);
+    }
+
+    /**
+     * Merge solutions of partitions
+     *
+     * Only items of the partition are taken from its solution.
+     *
+     * @param partitions Partitions solved
+     * @param solutions Solution of each partition, null if not known
+     */
+    public NodeAssignments merge(final List<QueueState> partitions, final List<NodeAssignments> solutions) {
+
+        if (partitions.size() != solutions.size()) throw new IllegalArgumentException(
+                partitions.size() + " partitions but " + solutions.size() + " solutions"
+        );
+
+        final NodeAssignments.Builder builder = NodeAssignments.builder();
+        for (int i = 0; i < partitions.size(); i++) {
+
+            final NodeAssignments solution = solutions.get(i);
+            if (solution == null) continue;
+
+            for (final QueueState.Item item: partitions.get(i).items()) {
+
+                final String node = solution.nodeName(item.id);
+                if (node != null) {
+
+                    builder.assign(item.id, node);
+                }
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Apply changes to previously captured state
+     *
+     * Only changed items and nodes are captured so the cost does not depend
+     * on the size of the queue.
+     *
+     * @param previous Previously captured state
+     * @param stateProvider Current state
+     * @param assignments Latest assignments
+     * @param changed Items that entered the queue or changed
+     * @param removed Ids of items that left the queue
+     * @param changedNodes Nodes whose executors changed
+     * @return Immutable state
+     */
+    public QueueState apply(
+            final QueueState previous,
+            final StateProvider stateProvider,
+            final NodeAssignments assignments,
+            final Collection<Queue.BuildableItem> changed,
+            final Collection<Integer> removed,
+            final Collection<Node> changedNodes
+    ) {
+
+        return snapshotSerializer.apply(
+                previous, new Snapshot(stateProvider, assignments, queueLock()), changed, removed, changedNodes
+        );
+    }
+
+    /**
+     * Stream captured state as compact JSON query
+     *
+     * @param state Captured state
+     * @param out Stream to write JSON query to
+     */
+    public void writeQuery(final QueueState state, final OutputStream out) throws IOException {
+
+        writeQuery(state, out, Codec.JSON);
+    }
+
+    /**
+     * Stream captured state as query in given format
+     *
+     * @param state Captured state
+     * @param out Stream to write query to
+     * @param codec Format of the message
+     */
+    public void writeQuery(
+            final QueueState state, final OutputStream out, final Codec codec
+    ) throws IOException {
+
+        final JsonWriter writer = codec.writer(out);
+        snapshotSerializer.serialize(state, writer);
+        writer.flush();
+    }
+
+    /**
+     * Stream captured state as compact JSON query with node dictionary
+     *
+     * Every node is listed once in top-level <tt>nodes</tt> array and queue
+     * items refer to it by its index there. Planner needs to advertise
+     * support for this format.
+     *
+     * @param state Captured state
+     * @param out Stream to write JSON query to
+     */
+    public void writeDictionaryQuery(final QueueState state, final OutputStream out) throws IOException {
+
+        writeDictionaryQuery(state, out, Codec.JSON);
+    }
+
+    /**
+     * Stream captured state as query with node dictionary in given format
+     *
+     * @param state Captured state
+     * @param out Stream to write query to
+     * @param codec Format of the message
+     */
+    public void writeDictionaryQuery(
+            final QueueState state, final OutputStream out, final Codec codec
+    ) throws IOException {
+
+        final JsonWriter writer = codec.writer(out);
+        snapshotSerializer.serializeDictionary(state, writer);
+        writer.flush();
+    }
+
+    /**
+     * Stream the difference between two captured states as compact JSON
+     *
+     * Changed and added items are listed in <tt>items</tt> referring nodes by
+     * name, ids of items no longer in queue are listed in <tt>removed</tt>.
+     * Nodes that changed or appeared are listed in <tt>nodes</tt> and the names
+     * of those that disappeared in <tt>removedNodes</tt>.
+     *
+     * @param previous State planner is known to hold
+     * @param current Current state
+     * @param out Stream to write JSON delta to
+     */
+    public void writeDelta(
+            final QueueState previous, final QueueState current, final OutputStream out
+    ) throws IOException {
+
+        writeDelta(previous, current, out, Codec.JSON);
+    }
+
+    /**
+     * Stream the difference between two captured states in given format
+     *
+     * @param previous State planner is known to hold
+     * @param current Current state
+     * @param out Stream to write delta to
+     * @param codec Format of the message
+     */
+    public void writeDelta(
+            final QueueState previous,
+            final QueueState current,
+            final OutputStream out,
+            final Codec codec
+    ) throws IOException {
+
+        final JsonWriter writer = codec.writer(out);
+        snapshotSerializer.serializeDelta(previous, current, writer);
+        writer.flush();
+    }
+
+    private JsonWriter jsonWriter(final Writer out) {
+
+        final JsonWriter writer = new JsonWriter(out);
+        // Keep the escaping Gson used to apply
+        writer.setHtmlSafe(true);
+        return writer;
+    }
+
+    /**
+     * Queue is modified while holding its monitor so it does not change while it is held
+     */
+    private static Object queueLock() {
+
+        final Jenkins jenkins = Jenkins.getInstance();
+        return jenkins == null ? new Object() : jenkins.getQueue();
+    }
+
+    private static ExecutorService pool(final int parallelism) {
+
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new DaemonThreadFactory()
+        );
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 
     /*package*/ static final class Snapshot {
 
         private final NodeAssignments assignments;
         private final StateProvider stateProvider;
+        private final Object lock;
 
         public Snapshot(final StateProvider stateProvider, final NodeAssignments assignments) {
 
+            this(stateProvider, assignments, new Object());
+        }
+
+        /**
+         * @param lock Held while live state is read
+         */
+        public Snapshot(final StateProvider stateProvider, final NodeAssignments assignments, final Object lock) {
+
             if (assignments == null) throw new AssertionError("nodeAssignments is null");
             if (stateProvider == null) throw new AssertionError("stateProvider is null");
+            if (lock == null) throw new AssertionError("lock is null");
 
             this.stateProvider = stateProvider;
             this.assignments = assignments;
+            this.lock = lock;
+        }
+
+        public Object lock() {
+
+            return lock;
         }
 
         public NodeAssignments assignments() {
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AdaptivePeriodTest {
+
+    private final AdaptivePeriod period = new AdaptivePeriod(250, 5000);
+
+    @Test
+    public void dueInitially() {
+
+        assertTrue(period.isDue(0));
+        assertEquals(250, period.period());
+    }
+
+    @Test
+    public void backOffWhileUnchanged() {
+
+        period.updated(0, false);
+        assertEquals(500, period.period());
+        assertFalse(period.isDue(499));
+        assertTrue(period.isDue(500));
+
+        for (int i = 0; i < 10; i++) {
+
+            period.updated(0, false);
+        }
+        assertEquals(5000, period.period());
+    }
+
+    @Test
+    public void speedUpWhenChanged() {
+
+        period.updated(0, false);
+        period.updated(0, false);
+        period.updated(1000, true);
+
+        assertEquals(250, period.period());
+        assertFalse(period.isDue(1249));
+        assertTrue(period.isDue(1250));
+    }
+
+    @Test
+    public void updateRightAfterWakeUp() {
+
+        period.updated(0, false);
+        period.updated(0, false);
+        period.wake();
+
+        assertTrue(period.isDue(1));
+        assertEquals(250, period.period());
+    }
+
+    @Test
+    public void doNotBackOffWhenWokenDuringUpdate() {
+
+        period.wake();
+        period.updated(0, false);
+
+        assertEquals(250, period.period());
+
+        period.updated(0, false);
+        assertEquals(500, period.period());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectCeilingBelowFloor() {
+
+        new AdaptivePeriod(250, 100);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private final CircuitBreaker breaker = new CircuitBreaker(3, 1000, 30000);
+
+    @Test
+    public void closedInitially() {
+
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest(0));
+    }
+
+    @Test
+    public void openAfterConsecutiveFailures() {
+
+        breaker.failed(0);
+        breaker.failed(0);
+        breaker.succeeded(0, 10);
+        breaker.failed(0);
+        breaker.failed(0);
+        assertFalse(breaker.isOpen());
+
+        breaker.failed(100);
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest(30099));
+    }
+
+    @Test
+    public void slowUpdatesAreFailures() {
+
+        for (int i = 0; i < 3; i++) {
+
+            assertFalse(breaker.succeeded(0, 1001));
+        }
+        assertTrue(breaker.isOpen());
+    }
+
+    @Test
+    public void openOnceStalled() {
+
+        breaker.stalled(0);
+        assertTrue(breaker.isOpen());
+    }
+
+    @Test
+    public void closeAfterSuccessfulProbe() {
+
+        breaker.stalled(0);
+
+        assertTrue(breaker.allowRequest(30000));
+        // Single probe at a time
+        assertFalse(breaker.allowRequest(30001));
+        assertTrue(breaker.isOpen());
+
+        assertTrue(breaker.succeeded(30500, 500));
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest(30501));
+    }
+
+    @Test
+    public void reopenAfterFailedProbe() {
+
+        breaker.stalled(0);
+
+        assertTrue(breaker.allowRequest(30000));
+        breaker.failed(30100);
+
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest(60099));
+        assertTrue(breaker.allowRequest(60100));
+    }
+}
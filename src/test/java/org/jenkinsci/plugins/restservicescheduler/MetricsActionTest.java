@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class MetricsActionTest {
+
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private final Tracer tracer = Tracer.get();
+
+    @After
+    public void tearDown() {
+
+        tracer.configure(false, 1, 4096);
+        tracer.clear();
+    }
+
+    @Test
+    public void escapeTracedBodies() throws Exception {
+
+        tracer.configure(true, 1, 4096);
+
+        final Tracer.Exchange exchange = tracer.start("PUT /");
+        exchange.requestType("application/json");
+        final OutputStream request = exchange.request(new ByteArrayOutputStream());
+        request.write(
+                "{\"items\":[{\"name\":\"<script>alert(task)</script>\"}]}".getBytes("UTF-8")
+        );
+        exchange.response("<script>alert(planner)</script>");
+        exchange.outcome("2xx");
+        tracer.finish(exchange, System.nanoTime());
+
+        final String page = j.createWebClient().goTo("rest-scheduler-metrics/")
+                .getWebResponse().getContentAsString()
+        ;
+
+        assertThat(page, not(containsString("<script>alert(")));
+        assertThat(page, containsString("&lt;script&gt;alert(task)"));
+        assertThat(page, containsString("&lt;script&gt;alert(planner)"));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+    private final Metrics metrics = new Metrics();
+
+    @Test
+    public void count() {
+
+        assertEquals(0, metrics.count("errors GET /"));
+
+        metrics.error("GET /");
+        metrics.error("GET /");
+        metrics.increment("updates full");
+
+        assertEquals(2, metrics.count("errors GET /"));
+        assertEquals(1, metrics.count("updates full"));
+        assertEquals(2, metrics.getCounters().size());
+    }
+
+    @Test
+    public void histogram() {
+
+        final Metrics.Histogram histogram = metrics.histogram("request queue", "bytes");
+        assertSame(histogram, metrics.histogram("request queue", "bytes"));
+
+        for (int i = 1; i <= 100; i++) {
+
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getMean());
+        assertEquals(100, histogram.getMax());
+
+        // Upper bounds of buckets
+        assertEquals(63, histogram.getP50());
+        assertEquals(100, histogram.getP90());
+        assertEquals(100, histogram.getP99());
+    }
+
+    @Test
+    public void emptyHistogram() {
+
+        final Metrics.Histogram histogram = metrics.histogram("snapshot capture", "ms");
+
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getP99());
+    }
+
+    @Test
+    public void latency() {
+
+        metrics.latency("GET /info", System.nanoTime());
+
+        assertEquals(1, metrics.getHistograms().size());
+        assertTrue(metrics.getHistograms().iterator().next().getName().equals("latency GET /info"));
+    }
+
+    @Test
+    public void reset() {
+
+        metrics.increment("updates full");
+        metrics.histogram("snapshot capture", "ms").record(1);
+        metrics.reset();
+
+        assertEquals(0, metrics.getCounters().size());
+        assertEquals(0, metrics.getHistograms().size());
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server standing in for remote planner
+ *
+ * @author ogondza
+ */
+/*package*/ final class PlannerStub implements HttpHandler {
+
+    private static final String PREFIX = "/rest/hudsonQueue";
+
+    private final HttpServer server;
+
+    private volatile String info = "info: Planner stub";
+    private volatile String solution = "{\"solution\": []}";
+    private volatile String solutionTag = null;
+    private volatile boolean rejectCompressed = false;
+
+    /**
+     * Milliseconds to hold solution responses
+     */
+    private volatile long stall = 0;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /*package*/ final AtomicInteger solutionRequests = new AtomicInteger();
+    /*package*/ final AtomicInteger notModifiedResponses = new AtomicInteger();
+    /*package*/ final AtomicInteger queueRequests = new AtomicInteger();
+    /*package*/ final AtomicInteger compressedRequests = new AtomicInteger();
+    /*package*/ final AtomicInteger chunkedRequests = new AtomicInteger();
+
+    /*package*/ PlannerStub() throws IOException {
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(PREFIX, this);
+        server.start();
+    }
+
+    /*package*/ void stop() {
+
+        stopped.countDown();
+        server.stop(0);
+    }
+
+    /*package*/ URL url() throws MalformedURLException {
+
+        return new URL("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    /*package*/ PlannerStub info(final String info) {
+
+        this.info = info;
+        return this;
+    }
+
+    /*package*/ PlannerStub solution(final String solution, final String tag) {
+
+        this.solution = solution;
+        this.solutionTag = tag;
+        return this;
+    }
+
+    /*package*/ PlannerStub stall(final long millis) {
+
+        this.stall = millis;
+        return this;
+    }
+
+    /*package*/ PlannerStub rejectCompressed() {
+
+        this.rejectCompressed = true;
+        return this;
+    }
+
+    public void handle(final HttpExchange exchange) throws IOException {
+
+        drain(exchange.getRequestBody());
+
+        if ("chunked".equals(exchange.getRequestHeaders().getFirst("Transfer-Encoding"))) {
+
+            chunkedRequests.incrementAndGet();
+        }
+
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+
+            compressedRequests.incrementAndGet();
+            if (rejectCompressed) {
+
+                respond(exchange, 415, null);
+                return;
+            }
+        }
+
+        final String path = exchange.getRequestURI().getPath();
+        final String method = exchange.getRequestMethod();
+
+        if (path.equals(PREFIX + "/info")) {
+
+            respond(exchange, 200, info);
+        } else if (path.equals(PREFIX) && method.equals("GET")) {
+
+            solutionRequests.incrementAndGet();
+            stall();
+            getSolution(exchange);
+        } else if (path.equals(PREFIX + "/watch")) {
+
+            // Solution is served right away, the same as when found
+            getSolution(exchange);
+        } else if (path.equals(PREFIX)) {
+
+            queueRequests.incrementAndGet();
+            respond(exchange, 204, null);
+        } else {
+
+            respond(exchange, 404, null);
+        }
+    }
+
+    private void getSolution(final HttpExchange exchange) throws IOException {
+
+        final String tag = solutionTag;
+        final String expected = exchange.getRequestHeaders().getFirst("If-None-Match");
+
+        if (tag != null && tag.equals(expected)) {
+
+            notModifiedResponses.incrementAndGet();
+            respond(exchange, 304, null);
+            return;
+        }
+
+        if (tag != null) {
+
+            exchange.getResponseHeaders().add("ETag", tag);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        respond(exchange, 200, solution);
+    }
+
+    private void respond(final HttpExchange exchange, final int code, final String body) throws IOException {
+
+        if (body == null) {
+
+            exchange.sendResponseHeaders(code, -1);
+            exchange.close();
+            return;
+        }
+
+        final byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private void stall() {
+
+        final long stall = this.stall;
+        if (stall <= 0) return;
+
+        try {
+
+            stopped.await(stall, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain(final InputStream in) throws IOException {
+
+        final byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.when;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Queue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.jenkinsci.plugins.externalscheduler.ItemMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Computer.class, Node.class, Queue.BuildableItem.class})
+public class QueueChangesTest {
+
+    private final QueueChanges changes = new QueueChanges();
+
+    @Test
+    public void reportFirstChangeOnly() {
+
+        assertTrue(changes.isEmpty());
+        assertTrue(changes.itemChanged(item(1)));
+        assertFalse(changes.itemChanged(item(2)));
+        assertFalse(changes.itemRemoved(3));
+        assertFalse(changes.nodeChanged(mock(Node.class)));
+    }
+
+    @Test
+    public void coalesceRepeatedChanges() {
+
+        changes.itemChanged(item(1));
+        changes.itemChanged(item(1));
+        final Node node = mock(Node.class);
+        changes.nodeChanged(node);
+        changes.nodeChanged(node);
+
+        final QueueChanges.Batch batch = changes.drain();
+
+        assertEquals(1, batch.changed().size());
+        assertEquals(Arrays.asList(node), batch.nodes());
+    }
+
+    @Test
+    public void reportReleasingNodeOnceReleased() {
+
+        final Computer computer = mock(Computer.class);
+        final Node node = mock(Node.class);
+        when(node.toComputer()).thenReturn(computer);
+        when(computer.countIdle()).thenReturn(0);
+
+        assertTrue(changes.executorReleasing(node));
+        assertEquals(Arrays.asList(node), changes.drain().nodes());
+
+        // Executor still busy
+        assertTrue(changes.collectReleased());
+        assertTrue(changes.isEmpty());
+
+        when(computer.countIdle()).thenReturn(1);
+        assertFalse(changes.collectReleased());
+        assertEquals(Arrays.asList(node), changes.drain().nodes());
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void reportReleasingNodeOnceAttemptsRunOut() {
+
+        final Node node = mock(Node.class);
+        changes.executorReleasing(node);
+        changes.drain();
+
+        for (int i = 1; i < QueueChanges.RELEASE_ATTEMPTS; i++) {
+
+            assertTrue(changes.collectReleased());
+        }
+        assertTrue(changes.isEmpty());
+
+        assertFalse(changes.collectReleased());
+        assertEquals(Arrays.asList(node), changes.drain().nodes());
+    }
+
+    @Test
+    public void reportItemThatCameAndLeftAsRemoved() {
+
+        changes.itemChanged(item(1));
+        changes.itemRemoved(1);
+        changes.itemRemoved(2);
+        changes.itemChanged(item(2));
+
+        final QueueChanges.Batch batch = changes.drain();
+
+        assertEquals(Arrays.asList(1), batch.removed());
+        assertEquals(1, batch.changed().size());
+        assertEquals(2, batch.changed().iterator().next().id);
+    }
+
+    @Test
+    public void drainLeavesEmpty() {
+
+        changes.itemChanged(item(1));
+        changes.drain();
+
+        assertTrue(changes.isEmpty());
+        assertTrue(changes.drain().isEmpty());
+        assertTrue(changes.itemRemoved(1));
+    }
+
+    private Queue.BuildableItem item(final int id) {
+
+        return ItemMock.create(new HashSet<Node>(), id, "item" + id, 1);
+    }
+}
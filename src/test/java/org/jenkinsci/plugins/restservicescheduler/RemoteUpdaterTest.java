@@ -23,17 +23,41 @@
  */
 package org.jenkinsci.plugins.restservicescheduler;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
+import hudson.model.Node;
 import hudson.model.Queue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
 import jenkins.model.Jenkins;
 
 import org.jenkinsci.plugins.externalscheduler.ExternalScheduler;
+import org.jenkinsci.plugins.externalscheduler.ItemMock;
 import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
 import org.jenkinsci.plugins.externalscheduler.StateProvider;
+import org.jenkinsci.plugins.externalscheduler.StateProviderMock;
+import org.jenkinsci.plugins.restservicescheduler.json.QueueState;
+import org.jenkinsci.plugins.restservicescheduler.json.Translator;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -46,7 +70,7 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import org.powermock.reflect.Whitebox;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({ExternalScheduler.class, RestScheduler.class, Jenkins.class})
+@PrepareForTest({ExternalScheduler.class, RestScheduler.class, Jenkins.class, Node.class})
 public class RemoteUpdaterTest {
 
     @Mock private ExternalScheduler externalScheduler;
@@ -57,12 +81,16 @@ public class RemoteUpdaterTest {
 
     private PluginScheduler.RemoteUpdater updater;
 
+    private final QueueState state = new Translator().capture(
+            new StateProviderMock(ItemMock.list(), Collections.<Node>emptyList()), NodeAssignments.empty()
+    );
+
     @Before
     public void setUp() {
 
         MockitoAnnotations.initMocks(this);
 
-        updater = new PluginScheduler.RemoteUpdater(externalScheduler);
+        updater = new PluginScheduler.RemoteUpdater(externalScheduler, new SameThreadExecutor());
 
         PowerMockito.mockStatic(Jenkins.class);
         when(Jenkins.getInstance()).thenReturn(jenkins);
@@ -91,12 +119,251 @@ public class RemoteUpdaterTest {
         Whitebox.setInternalState(PluginScheduler.class, "restScheduler", restScheduler);
         when(externalScheduler.currentSolution()).thenReturn(currentSolution);
 
-        when(restScheduler.solution()).thenReturn(newSolution);
+        when(restScheduler.solutionAsync()).thenReturn(done(newSolution));
+        when(restScheduler.capture(any(StateProvider.class), same(currentSolution))).thenReturn(state);
+        when(restScheduler.queueAsync(state)).thenReturn(done(true));
 
         updater.doRun();
 
-        verify(restScheduler).solution();
-        verify(restScheduler).queue(any(StateProvider.class), same(currentSolution));
+        verify(restScheduler).solutionAsync();
+        verify(restScheduler).capture(any(StateProvider.class), same(currentSolution));
+        verify(restScheduler).queueAsync(state);
         verify(queue).scheduleMaintenance();
     }
+
+    @Test
+    public void skipUpdatesUntilDue() throws Exception {
+
+        final NodeAssignments solution = NodeAssignments.builder().assign(0, "master").build();
+
+        when(externalScheduler.activeScheduler()).thenReturn(pluginScheduler);
+        Whitebox.setInternalState(PluginScheduler.class, "restScheduler", restScheduler);
+        when(externalScheduler.currentSolution()).thenReturn(solution);
+
+        when(restScheduler.solutionAsync()).thenReturn(done(solution));
+        when(restScheduler.capture(any(StateProvider.class), same(solution))).thenReturn(state);
+        when(restScheduler.queueAsync(state)).thenReturn(done(false));
+
+        updater.doRun();
+        updater.doRun();
+
+        verify(restScheduler).solutionAsync();
+        verify(restScheduler).capture(any(StateProvider.class), same(solution));
+        verify(restScheduler).queueAsync(state);
+
+        updater.wake();
+        updater.doRun();
+
+        verify(restScheduler, times(2)).solutionAsync();
+        verify(restScheduler, times(2)).capture(any(StateProvider.class), same(solution));
+        verify(restScheduler, times(2)).queueAsync(state);
+    }
+
+    @Test
+    public void sendWholeQueueOnDueUpdateWithoutDeltas() throws Exception {
+
+        final NodeAssignments solution = NodeAssignments.builder().assign(0, "master").build();
+
+        when(externalScheduler.activeScheduler()).thenReturn(pluginScheduler);
+        Whitebox.setInternalState(PluginScheduler.class, "restScheduler", restScheduler);
+        when(externalScheduler.currentSolution()).thenReturn(solution);
+
+        when(restScheduler.solutionAsync()).thenReturn(done(solution));
+        when(restScheduler.capture(any(StateProvider.class), same(solution))).thenReturn(state);
+        when(restScheduler.queueAsync(state)).thenReturn(done(true));
+        when(restScheduler.acceptsChanges()).thenReturn(false);
+
+        updater.doRun();
+
+        final Node node = mock(Node.class);
+        for (int i = 0; i < 10; i++) {
+
+            updater.nodeChanged(node, false);
+        }
+        Thread.sleep(500);
+
+        // Flushing the burst sent nothing
+        verify(restScheduler).solutionAsync();
+        verify(restScheduler).capture(any(StateProvider.class), same(solution));
+        verify(restScheduler).queueAsync(state);
+
+        updater.doRun();
+
+        // Next due update sent the whole queue once
+        verify(restScheduler, times(2)).solutionAsync();
+        verify(restScheduler, times(2)).capture(any(StateProvider.class), same(solution));
+        verify(restScheduler, times(2)).queueAsync(state);
+        verify(restScheduler, atLeastOnce()).acceptsChanges();
+        verify(restScheduler, never()).queueChangesAsync(
+                any(StateProvider.class), any(NodeAssignments.class), any(QueueChanges.Batch.class)
+        );
+    }
+
+    @Test
+    public void bypassPlannerWhileFailing() throws Exception {
+
+        final ExecutorService fallback = mock(ExecutorService.class);
+        updater = new PluginScheduler.RemoteUpdater(
+                externalScheduler,
+                new SameThreadExecutor(),
+                new AdaptivePeriod(1, 1),
+                new CircuitBreaker(1, 10000, 60000),
+                fallback
+        );
+
+        final NodeAssignments solution = NodeAssignments.builder().assign(0, "master").build();
+
+        when(externalScheduler.activeScheduler()).thenReturn(pluginScheduler);
+        Whitebox.setInternalState(PluginScheduler.class, "restScheduler", restScheduler);
+        when(externalScheduler.currentSolution()).thenReturn(solution);
+
+        when(restScheduler.solutionAsync()).thenReturn(this.<NodeAssignments>failed());
+        when(restScheduler.capture(any(StateProvider.class), same(solution))).thenReturn(state);
+        when(restScheduler.queueAsync(state)).thenReturn(done(true));
+
+        updater.doRun();
+
+        verify(restScheduler).solutionAsync();
+        verify(restScheduler).capture(any(StateProvider.class), same(solution));
+        verify(restScheduler).queueAsync(state);
+        assertTrue(updater.isFallback());
+
+        updater.wake();
+        updater.doRun();
+
+        // Assigned locally, planner not contacted
+        verify(fallback).submit(any(Runnable.class));
+    }
+
+    @Test
+    public void dropLocalSolutionComputedBeforeRecovery() throws Exception {
+
+        updater = new PluginScheduler.RemoteUpdater(
+                externalScheduler,
+                new SameThreadExecutor(),
+                new AdaptivePeriod(1, 1),
+                new CircuitBreaker(1, 10000, 0),
+                mock(ExecutorService.class)
+        );
+
+        final NodeAssignments remote = NodeAssignments.builder().assign(0, "master").build();
+        final NodeAssignments local = NodeAssignments.builder().assign(0, "slave").build();
+
+        when(externalScheduler.activeScheduler()).thenReturn(pluginScheduler);
+        Whitebox.setInternalState(PluginScheduler.class, "restScheduler", restScheduler);
+        when(externalScheduler.currentSolution()).thenReturn(NodeAssignments.empty());
+
+        when(restScheduler.solutionAsync())
+                .thenReturn(this.<NodeAssignments>failed())
+                .thenReturn(done(remote))
+        ;
+        when(restScheduler.capture(any(StateProvider.class), any(NodeAssignments.class))).thenReturn(state);
+        when(restScheduler.queueAsync(state)).thenReturn(done(true));
+
+        updater.doRun();
+        assertTrue(updater.isFallback());
+
+        // Local assignment starts from the solution published so far
+        final PublishedSolution basis = updater.published();
+
+        // Planner recovers in the meantime
+        updater.wake();
+        updater.doRun();
+        assertFalse(updater.isFallback());
+
+        assertFalse(updater.publishLocal(basis, local));
+        assertSame(remote, updater.published().assignments());
+        assertFalse(updater.published().isLocal());
+
+        verify(restScheduler, times(2)).solutionAsync();
+        verify(restScheduler, times(2)).capture(any(StateProvider.class), any(NodeAssignments.class));
+        verify(restScheduler, times(2)).queueAsync(state);
+    }
+
+    @Test
+    public void publishVersionedSolutions() {
+
+        final NodeAssignments first = NodeAssignments.builder().assign(0, "master").build();
+        final NodeAssignments second = NodeAssignments.builder().assign(0, "slave").build();
+
+        assertEquals(0, updater.published().version());
+        assertNull(updater.published().assignments());
+
+        updater.solutionPushed(first);
+        final PublishedSolution published = updater.published();
+        assertEquals(1, published.version());
+        assertSame(first, published.assignments());
+
+        // Same assignments are not republished
+        updater.solutionPushed(NodeAssignments.builder().assign(0, "master").build());
+        assertSame(published, updater.published());
+
+        updater.solutionPushed(second);
+        assertEquals(2, updater.published().version());
+        assertSame(second, updater.published().assignments());
+
+        verify(queue, times(2)).scheduleMaintenance();
+    }
+
+    private <T> Future<T> failed() {
+
+        final FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+
+            public T call() throws SchedulerException {
+
+                throw new SchedulerException("Planner down");
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    private static <T> Future<T> done(final T value) {
+
+        final FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+
+            public T call() {
+
+                return value;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    private static final class SameThreadExecutor extends AbstractExecutorService {
+
+        private boolean shutdown = false;
+
+        public void execute(final Runnable command) {
+
+            command.run();
+        }
+
+        public void shutdown() {
+
+            shutdown = true;
+        }
+
+        public List<Runnable> shutdownNow() {
+
+            shutdown = true;
+            return Collections.emptyList();
+        }
+
+        public boolean isShutdown() {
+
+            return shutdown;
+        }
+
+        public boolean isTerminated() {
+
+            return shutdown;
+        }
+
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+
+            return true;
+        }
+    }
 }
@@ -0,0 +1,222 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import hudson.model.Node;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.jenkinsci.plugins.externalscheduler.ItemMock;
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+import org.jenkinsci.plugins.externalscheduler.StateProvider;
+import org.jenkinsci.plugins.externalscheduler.StateProviderMock;
+import org.jenkinsci.plugins.restservicescheduler.json.QueueState;
+import org.jenkinsci.plugins.restservicescheduler.json.Translator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(RestScheduler.class)
+public class ReplicatedPlannerTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Mock private RestScheduler primary;
+    @Mock private RestScheduler replica;
+
+    private ReplicatedPlanner planner;
+
+    @Before
+    public void setUp() {
+
+        MockitoAnnotations.initMocks(this);
+        Metrics.get().reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        planner.stop();
+        Metrics.get().reset();
+    }
+
+    @Test
+    public void failOverToAnotherReplica() throws Exception {
+
+        final NodeAssignments solution = NodeAssignments.builder().assign(1, "slave").build();
+        when(primary.solution()).thenThrow(new SchedulerException("Down"));
+        when(replica.solution()).thenReturn(solution);
+
+        planner = new ReplicatedPlanner(Arrays.asList(primary, replica), false, HOUR);
+
+        assertSame(solution, planner.solution());
+        assertEquals(1, Metrics.get().count("failovers"));
+
+        // Failed replica is asked last
+        assertSame(replica, planner.ranked().get(0).scheduler);
+        assertFalse(planner.ranked().get(1).isHealthy());
+    }
+
+    @Test
+    public void doNotFailReplicaThatIsNotRunningYet() throws Exception {
+
+        final NodeAssignments solution = NodeAssignments.builder().assign(1, "slave").build();
+        when(primary.solution()).thenThrow(new IllegalStateException("Remote planner not running"));
+        when(replica.solution()).thenReturn(solution);
+
+        planner = new ReplicatedPlanner(Arrays.asList(primary, replica), false, HOUR);
+
+        assertSame(solution, planner.solution());
+        assertEquals(0, Metrics.get().count("replica failures"));
+        assertTrue(planner.ranked().get(0).isHealthy());
+        assertTrue(planner.ranked().get(1).isHealthy());
+    }
+
+    @Test
+    public void recoverOnceProbed() throws Exception {
+
+        when(primary.solution()).thenThrow(new SchedulerException("Down"));
+        when(replica.solution()).thenReturn(NodeAssignments.empty());
+
+        planner = new ReplicatedPlanner(Arrays.asList(primary, replica), false, HOUR);
+        planner.solution();
+
+        doThrow(new SchedulerException("Down")).when(replica).ping();
+        planner.probe();
+
+        assertSame(primary, planner.ranked().get(0).scheduler);
+        assertTrue(planner.ranked().get(0).isHealthy());
+    }
+
+    @Test
+    public void sendWholeQueueToRecoveredReplica() throws Exception {
+
+        final QueueState state = new Translator().capture(
+                new StateProviderMock(ItemMock.list(), Collections.<Node>emptyList()), NodeAssignments.empty()
+        );
+
+        when(primary.solution()).thenThrow(new SchedulerException("Down"));
+        when(replica.solution()).thenReturn(NodeAssignments.empty());
+        when(replica.queueChangesAsync(any(StateProvider.class), any(NodeAssignments.class), any(QueueChanges.Batch.class)))
+                .thenReturn(done(true))
+        ;
+
+        planner = new ReplicatedPlanner(Arrays.asList(primary, replica), false, HOUR);
+        planner.solution();
+
+        // Changes are not sent to failed replica, it has to start over
+        assertTrue(planner.queueChangesAsync(null, NodeAssignments.empty(), null).get());
+        verify(primary, never()).queueChangesAsync(any(StateProvider.class), any(NodeAssignments.class), any(QueueChanges.Batch.class));
+        verify(primary).forgetSent();
+
+        planner.probe();
+
+        // Recovered but not asked for solution before it gets the queue
+        assertTrue(planner.ranked().get(1).isHealthy());
+        assertTrue(planner.ranked().get(1).isStale());
+        assertSame(primary, planner.ranked().get(1).scheduler);
+
+        when(primary.queueAsync(state)).thenReturn(done(true));
+        when(replica.queueAsync(state)).thenReturn(done(false));
+        assertTrue(planner.queue(state));
+
+        assertFalse(planner.ranked().get(0).isStale());
+        assertFalse(planner.ranked().get(1).isStale());
+    }
+
+    @Test(expected = SchedulerException.class)
+    public void failWhenNoReplicaResponds() throws Exception {
+
+        when(primary.solution()).thenThrow(new SchedulerException("Down"));
+        when(replica.solution()).thenThrow(new SchedulerException("Down"));
+
+        planner = new ReplicatedPlanner(Arrays.asList(primary, replica), false, HOUR);
+        planner.solution();
+    }
+
+    @Test
+    public void hedgeSlowRequest() throws Exception {
+
+        planner = new ReplicatedPlanner(Arrays.asList(primary, replica), true, HOUR);
+
+        when(primary.solution()).thenReturn(NodeAssignments.empty());
+        for (int i = 0; i < 100; i++) {
+
+            planner.solution();
+        }
+
+        // Latency of solution downloads survives statistics reset
+        Metrics.get().reset();
+
+        final NodeAssignments solution = NodeAssignments.builder().assign(1, "slave").build();
+        when(primary.solution()).thenAnswer(new Answer<NodeAssignments>() {
+
+            public NodeAssignments answer(final InvocationOnMock invocation) throws Throwable {
+
+                Thread.sleep(10 * 1000);
+                return NodeAssignments.empty();
+            }
+        });
+        when(replica.solution()).thenReturn(solution);
+
+        final long start = System.currentTimeMillis();
+        assertSame(solution, planner.solution());
+        assertTrue(System.currentTimeMillis() - start < 5 * 1000);
+        assertEquals(1, Metrics.get().count("hedged requests"));
+    }
+
+    private static <T> Future<T> done(final T value) {
+
+        final FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+
+            public T call() {
+
+                return value;
+            }
+        });
+        future.run();
+        return future;
+    }
+}
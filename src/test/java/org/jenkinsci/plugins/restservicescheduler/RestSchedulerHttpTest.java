@@ -0,0 +1,275 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import hudson.model.Node;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+
+import org.jenkinsci.plugins.externalscheduler.ItemMock;
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+import org.jenkinsci.plugins.externalscheduler.StateProviderMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RestSchedulerHttpTest {
+
+    private static final String SOLUTION = "{\"solution\": [{\"id\": 1, \"name\": \"job@1\", \"node\": \"slave1\"}]}";
+    private static final String OTHER_SOLUTION = "{\"solution\": [{\"id\": 1, \"name\": \"job@1\", \"node\": \"slave2\"}]}";
+
+    private PlannerStub planner;
+    private RestScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+
+        planner = new PlannerStub();
+        scheduler = new RestScheduler(planner.url());
+        scheduler.queue(
+                new StateProviderMock(ItemMock.list(), new ArrayList<Node>()),
+                NodeAssignments.empty()
+        );
+    }
+
+    @After
+    public void tearDown() {
+
+        planner.stop();
+    }
+
+    @Test
+    public void reuseNotModifiedSolution() throws SchedulerException {
+
+        planner.solution(SOLUTION, "\"v1\"");
+
+        final NodeAssignments first = scheduler.solution();
+        final NodeAssignments second = scheduler.solution();
+
+        assertEquals("slave1", first.nodeName(1));
+        assertSame(first, second);
+        assertEquals(2, planner.solutionRequests.get());
+        assertEquals(1, planner.notModifiedResponses.get());
+    }
+
+    @Test
+    public void fetchModifiedSolution() throws SchedulerException {
+
+        planner.solution(SOLUTION, "\"v1\"");
+        final NodeAssignments first = scheduler.solution();
+
+        planner.solution(OTHER_SOLUTION, "\"v2\"");
+        final NodeAssignments second = scheduler.solution();
+
+        assertNotSame(first, second);
+        assertEquals("slave2", second.nodeName(1));
+        assertEquals(0, planner.notModifiedResponses.get());
+    }
+
+    @Test
+    public void watchSolutionNotDeliveredYet() throws SchedulerException {
+
+        planner.solution(SOLUTION, "\"v1\"");
+        scheduler.solution();
+
+        assertNull(scheduler.awaitSolution());
+        assertEquals(1, planner.notModifiedResponses.get());
+
+        planner.solution(OTHER_SOLUTION, "\"v2\"");
+        assertEquals("slave2", scheduler.awaitSolution().nodeName(1));
+    }
+
+    @Test
+    public void ignoreUnchangedWatchedSolution() throws SchedulerException {
+
+        planner.solution(SOLUTION, "\"v1\"");
+        scheduler.solution();
+
+        // Retagged but the same
+        planner.solution(SOLUTION, "\"v2\"");
+        assertNull(scheduler.awaitSolution());
+        assertEquals(0, planner.notModifiedResponses.get());
+    }
+
+    @Test
+    public void doNotCacheUntaggedSolution() throws SchedulerException {
+
+        planner.solution(SOLUTION, null);
+
+        scheduler.solution();
+        scheduler.solution();
+
+        assertEquals(2, planner.solutionRequests.get());
+        assertEquals(0, planner.notModifiedResponses.get());
+    }
+
+    @Test
+    public void forgetCachedSolutionWhenStopped() throws SchedulerException, IOException {
+
+        planner.solution(SOLUTION, "\"v1\"");
+        scheduler.solution();
+
+        scheduler.stop();
+        scheduler.queue(
+                new StateProviderMock(ItemMock.list(), new ArrayList<Node>()),
+                NodeAssignments.empty()
+        );
+        scheduler.solution();
+
+        assertEquals(0, planner.notModifiedResponses.get());
+    }
+
+    @Test
+    public void compressRequests() throws Exception {
+
+        compressingScheduler(planner.info("info: Planner stub\ncapabilities: gzip"), 0);
+
+        assertEquals(1, planner.compressedRequests.get());
+    }
+
+    @Test
+    public void doNotCompressUnlessAdvertised() throws Exception {
+
+        compressingScheduler(planner, 0);
+
+        assertEquals(0, planner.compressedRequests.get());
+    }
+
+    @Test
+    public void compressRequestsAboveThreshold() throws Exception {
+
+        planner.info("info: Planner stub\ncapabilities: gzip");
+
+        // Size is not known before the first request
+        final RestScheduler scheduler = compressingScheduler(planner, 1);
+        assertEquals(0, planner.compressedRequests.get());
+
+        resend(scheduler);
+        assertEquals(1, planner.compressedRequests.get());
+    }
+
+    @Test
+    public void doNotCompressRequestsBelowThreshold() throws Exception {
+
+        planner.info("info: Planner stub\ncapabilities: gzip");
+
+        final RestScheduler scheduler = compressingScheduler(planner, 1024 * 1024);
+        resend(scheduler);
+
+        assertEquals(0, planner.compressedRequests.get());
+    }
+
+    @Test
+    public void streamRequestsChunked() throws Exception {
+
+        compressingScheduler(planner, -1);
+
+        assertEquals(1, planner.queueRequests.get());
+        assertEquals(1, planner.chunkedRequests.get());
+    }
+
+    @Test
+    public void timeOutStalledResponse() throws Exception {
+
+        final RestScheduler scheduler = new RestScheduler(
+                planner.url(), RestScheduler.createClient(10, 1, false), false, -1
+        );
+        scheduler.queue(
+                new StateProviderMock(ItemMock.list(), new ArrayList<Node>()),
+                NodeAssignments.empty()
+        );
+
+        planner.stall(10 * 1000);
+        final long start = System.currentTimeMillis();
+        try {
+
+            scheduler.solution();
+            fail("Stalled response should time out");
+        } catch (SchedulerException ex) {
+
+            assertTrue(rootCause(ex) instanceof SocketTimeoutException);
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 5 * 1000);
+    }
+
+    @Test
+    public void resendUncompressedWhenRejected() throws Exception {
+
+        Metrics.get().reset();
+        planner.info("info: Planner stub\ncapabilities: gzip").rejectCompressed();
+        compressingScheduler(planner, 0);
+
+        // Rejected once, then sent uncompressed
+        assertEquals(1, planner.compressedRequests.get());
+        assertEquals(2, planner.queueRequests.get());
+
+        assertEquals(1, Metrics.get().count("compression rejected"));
+        assertEquals(0, Metrics.get().count("errors POST /"));
+        assertEquals(2, Metrics.get().histogram("latency POST /", "ms").getCount());
+    }
+
+    private RestScheduler compressingScheduler(
+            final PlannerStub planner, final int threshold
+    ) throws Exception {
+
+        final RestScheduler scheduler = new RestScheduler(
+                planner.url(), RestScheduler.createClient(10000, 10000, true), false, threshold
+        );
+        scheduler.queue(
+                new StateProviderMock(ItemMock.list(), new ArrayList<Node>()),
+                NodeAssignments.empty()
+        );
+        return scheduler;
+    }
+
+    /**
+     * Send the same queue again after restart
+     */
+    private void resend(final RestScheduler scheduler) throws Exception {
+
+        scheduler.stop();
+        scheduler.queue(
+                new StateProviderMock(ItemMock.list(), new ArrayList<Node>()),
+                NodeAssignments.empty()
+        );
+    }
+
+    private static Throwable rootCause(Throwable ex) {
+
+        while (ex.getCause() != null) {
+
+            ex = ex.getCause();
+        }
+        return ex;
+    }
+}
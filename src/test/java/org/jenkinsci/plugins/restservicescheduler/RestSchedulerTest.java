@@ -25,11 +25,14 @@ package org.jenkinsci.plugins.restservicescheduler;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
 
 import javax.ws.rs.core.MediaType;
 
@@ -68,13 +71,18 @@ public class RestSchedulerTest {
 
     private void useMeaningFullInfo() {
 
+        useInfo("info: hudson-queue-planning: Planner Mock");
+    }
+
+    private void useInfo(final String info) {
+
         WebResource r = mock(WebResource.class);
         WebResource.Builder rb = mock(WebResource.Builder.class);
         when(r.accept(MediaType.TEXT_PLAIN)).thenReturn(rb);
 
         when(client.resource(Mockito.endsWith("/info"))).thenReturn(r);
 
-        when(rb.get(String.class)).thenReturn("info: hudson-queue-planning: Planner Mock");
+        when(rb.get(String.class)).thenReturn(info);
     }
 
     @Test(expected = IllegalStateException.class)
@@ -120,4 +128,24 @@ public class RestSchedulerTest {
 
         assertEquals("hudson-queue-planning: Planner Mock", pp.name());
     }
+
+    @Test
+    public void noCapabilities() {
+
+        assertTrue(pp.capabilities().isEmpty());
+    }
+
+    @Test
+    public void checkCapabilities() throws SchedulerException {
+
+        useInfo("info: Planner Mock\ncapabilities: node-dictionary, delta\n");
+
+        pp = new RestScheduler(serviceUrl, client);
+
+        assertEquals("Planner Mock", pp.name());
+        assertEquals(
+                new HashSet<String>(Arrays.asList("node-dictionary", "delta")),
+                pp.capabilities()
+        );
+    }
 }
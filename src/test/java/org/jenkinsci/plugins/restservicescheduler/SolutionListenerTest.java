@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({RestScheduler.class, PluginScheduler.RemoteUpdater.class})
+public class SolutionListenerTest {
+
+    private static final long TIMEOUT = 5 * 1000;
+
+    @Mock private RestScheduler scheduler;
+    @Mock private PluginScheduler.RemoteUpdater updater;
+
+    private final NodeAssignments solution = NodeAssignments.builder().assign(1, "slave").build();
+
+    private SolutionListener listener;
+
+    @Before
+    public void setUp() {
+
+        MockitoAnnotations.initMocks(this);
+        listener = new SolutionListener(scheduler, updater, 10);
+    }
+
+    @After
+    public void tearDown() {
+
+        listener.stop();
+    }
+
+    @Test
+    public void surviveMalformedSolution() throws Exception {
+
+        when(scheduler.isRunning()).thenReturn(true);
+        when(scheduler.awaitSolution())
+                .thenThrow(new IllegalStateException("Expected BEGIN_OBJECT but was STRING"))
+                .thenReturn(solution)
+                .thenAnswer(NO_SOLUTION)
+        ;
+
+        listener.start();
+
+        verify(updater, timeout(TIMEOUT)).solutionPushed(solution);
+    }
+
+    @Test
+    public void surviveFailingUpdater() throws Exception {
+
+        when(scheduler.isRunning()).thenReturn(true);
+        when(scheduler.awaitSolution())
+                .thenReturn(solution)
+                .thenReturn(solution)
+                .thenAnswer(NO_SOLUTION)
+        ;
+        doThrow(new NumberFormatException()).doReturn(true).when(updater).solutionPushed(solution);
+
+        listener.start();
+
+        verify(updater, timeout(TIMEOUT).times(2)).solutionPushed(solution);
+    }
+
+    @Test
+    public void waitUntilPlannerRuns() throws Exception {
+
+        when(scheduler.isRunning()).thenReturn(false);
+        when(scheduler.awaitSolution()).thenReturn(solution).thenAnswer(NO_SOLUTION);
+
+        listener.start();
+        Thread.sleep(100);
+
+        verify(scheduler, never()).awaitSolution();
+
+        when(scheduler.isRunning()).thenReturn(true);
+
+        verify(updater, timeout(TIMEOUT)).solutionPushed(solution);
+    }
+
+    @Test
+    public void backOffWhenSolutionDoesNotChange() throws Exception {
+
+        listener = new SolutionListener(scheduler, updater, TIMEOUT * 10);
+        when(scheduler.isRunning()).thenReturn(true);
+        when(scheduler.awaitSolution()).thenReturn(solution);
+        when(updater.solutionPushed(solution)).thenReturn(false);
+
+        listener.start();
+        Thread.sleep(100);
+
+        verify(scheduler).awaitSolution();
+    }
+
+    private static final Answer<NodeAssignments> NO_SOLUTION = new Answer<NodeAssignments>() {
+
+        public NodeAssignments answer(final InvocationOnMock invocation) throws Throwable {
+
+            // Planner timed out the request
+            Thread.sleep(10);
+            return null;
+        }
+    };
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TracerTest {
+
+    private final Tracer tracer = new Tracer(3);
+
+    @Test
+    public void recordNothingUnlessEnabled() {
+
+        assertNull(tracer.start("GET /"));
+        assertEquals(0, tracer.getExchanges().size());
+    }
+
+    @Test
+    public void sample() {
+
+        tracer.configure(true, 2, 100);
+
+        assertNull(tracer.start("GET /"));
+        assertNotNull(tracer.start("GET /"));
+        assertNull(tracer.start("GET /"));
+        assertNotNull(tracer.start("GET /"));
+    }
+
+    @Test
+    public void keepLatestExchanges() {
+
+        tracer.configure(true, 1, 100);
+
+        for (int i = 0; i < 5; i++) {
+
+            final Tracer.Exchange exchange = tracer.start("PUT /" + i);
+            exchange.status(200);
+            tracer.finish(exchange, System.nanoTime());
+        }
+
+        final List<Tracer.Exchange> exchanges = tracer.getExchanges();
+        assertEquals(3, exchanges.size());
+        assertEquals("PUT /4", exchanges.get(0).getEndpoint());
+        assertEquals("PUT /2", exchanges.get(2).getEndpoint());
+        assertEquals("200", exchanges.get(0).getOutcome());
+
+        tracer.clear();
+        assertEquals(0, tracer.getExchanges().size());
+    }
+
+    @Test
+    public void truncateBodies() throws Exception {
+
+        tracer.configure(true, 1, 4);
+
+        final Tracer.Exchange exchange = tracer.start("PUT /");
+
+        final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        final OutputStream request = exchange.request(sent);
+        request.write("{\"queue\":[]}".getBytes("UTF-8"));
+
+        final InputStream response = exchange.response(new ByteArrayInputStream("{}".getBytes("UTF-8")));
+        while (response.read() >= 0);
+
+        assertEquals("{\"queue\":[]}", sent.toString("UTF-8"));
+        assertEquals("{\"qu... (12 bytes)", exchange.getRequest());
+        assertEquals("{}", exchange.getResponse());
+    }
+
+    @Test
+    public void printBinaryBodiesAsHex() throws Exception {
+
+        tracer.configure(true, 1, 100);
+
+        final Tracer.Exchange exchange = tracer.start("GET /");
+        exchange.responseType("application/cbor");
+        final InputStream response = exchange.response(new ByteArrayInputStream(new byte[] {(byte) 0xbf, (byte) 0xff}));
+        while (response.read(new byte[8]) >= 0);
+
+        assertEquals("bf ff ", exchange.getResponse());
+    }
+}
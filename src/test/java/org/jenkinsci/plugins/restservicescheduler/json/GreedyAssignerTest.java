@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+import org.junit.Test;
+
+public class GreedyAssignerTest {
+
+    private final GreedyAssigner assigner = new GreedyAssigner();
+
+    private final Map<Integer, QueueState.Item> items = new LinkedHashMap<Integer, QueueState.Item>();
+    private final Map<String, QueueState.NodeState> nodes = new LinkedHashMap<String, QueueState.NodeState>();
+
+    @Test
+    public void assignToNodeWithMostFreeExecutors() {
+
+        node("master", 2, 1);
+        node("slave", 4, 2);
+        item(1, 50, 10, null, "master", "slave");
+        item(2, 50, 20, null, "master", "slave");
+        item(3, 50, 30, null, "master", "slave");
+        item(4, 50, 40, null, "master", "slave");
+
+        // Tie broken by node order
+        assertEquals(
+                NodeAssignments.builder().assign(1, "slave").assign(2, "master").assign(3, "slave").build(),
+                assign()
+        );
+    }
+
+    @Test
+    public void preferLongerWaitingItems() {
+
+        node("slave", 1, 1);
+        item(1, 50, 20, null, "slave");
+        item(2, 50, 10, null, "slave");
+
+        assertEquals(NodeAssignments.builder().assign(2, "slave").build(), assign());
+    }
+
+    @Test
+    public void keepAssignedNodeWhileFree() {
+
+        node("master", 1, 1);
+        node("slave", 2, 2);
+        item(1, 50, 10, "master", "master", "slave");
+
+        assertEquals(NodeAssignments.builder().assign(1, "master").build(), assign());
+    }
+
+    @Test
+    public void doNotAssignToBusyNodes() {
+
+        node("slave", 2, 0);
+        item(1, 50, 10, "slave", "slave");
+
+        assertEquals(NodeAssignments.empty(), assign());
+    }
+
+    private NodeAssignments assign() {
+
+        return assigner.assign(new QueueState(items, nodes));
+    }
+
+    private void node(final String name, final int executors, final int free) {
+
+        nodes.put(name, new QueueState.NodeState(name, executors, free));
+    }
+
+    private void item(
+            final int id, final int priority, final long inQueueSince, final String assigned, final String... nodes
+    ) {
+
+        final List<String> names = Arrays.asList(nodes);
+        items.put(id, new QueueState.Item(id, priority, inQueueSince, "item" + id, names, assigned));
+    }
+}
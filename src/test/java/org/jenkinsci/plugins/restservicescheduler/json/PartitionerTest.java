@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.restservicescheduler.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
+import org.junit.Test;
+
+public class PartitionerTest {
+
+    private static final Translator SERIALIZER = new Translator();
+
+    private final Map<Integer, QueueState.Item> items = new LinkedHashMap<Integer, QueueState.Item>();
+    private final Map<String, QueueState.NodeState> nodes = new LinkedHashMap<String, QueueState.NodeState>();
+
+    @Test
+    public void splitConnectedComponents() {
+
+        node("linux1");
+        node("linux2");
+        node("windows");
+        node("mac");
+        item(1, "linux1");
+        item(2, "linux2");
+        // Connects linux nodes
+        item(3, "linux1", "linux2");
+        item(4, "windows");
+        item(5, "mac");
+
+        final List<QueueState> partitions = SERIALIZER.partition(new QueueState(items, nodes), 2);
+
+        assertEquals(2, partitions.size());
+        assertEquals(Arrays.asList(1, 2, 3), ids(partitions.get(0)));
+        assertEquals(Arrays.asList("linux1", "linux2"), names(partitions.get(0)));
+        assertEquals(Arrays.asList(4, 5), ids(partitions.get(1)));
+        assertEquals(Arrays.asList("windows", "mac"), names(partitions.get(1)));
+    }
+
+    @Test
+    public void keepEverythingInSinglePartition() {
+
+        node("linux");
+        node("windows");
+        item(1, "linux");
+        item(2, "windows");
+        item(3);
+
+        final QueueState state = new QueueState(items, nodes);
+        final List<QueueState> partitions = SERIALIZER.partition(state, 1);
+
+        assertEquals(1, partitions.size());
+        assertEquals(state.fingerprint(), partitions.get(0).fingerprint());
+    }
+
+    @Test
+    public void leavePartitionsEmpty() {
+
+        node("linux");
+        item(1, "linux");
+
+        final List<QueueState> partitions = SERIALIZER.partition(new QueueState(items, nodes), 3);
+
+        assertEquals(1, partitions.get(0).size());
+        assertEquals(0, partitions.get(1).size());
+        assertEquals(0, partitions.get(2).size());
+    }
+
+    @Test
+    public void keepComponentsInPreviousPartition() {
+
+        node("linux");
+        node("windows");
+        item(1, "linux");
+        item(2, "windows");
+
+        final QueueState state = new QueueState(items, nodes);
+        final List<QueueState> previous = new ArrayList<QueueState>(SERIALIZER.partition(state, 2));
+        Collections.reverse(previous);
+
+        item(3, "linux");
+        final List<QueueState> partitions = SERIALIZER.partition(new QueueState(items, nodes), 2, previous);
+
+        assertEquals(Arrays.asList(2), ids(partitions.get(0)));
+        assertEquals(Arrays.asList(1, 3), ids(partitions.get(1)));
+        assertEquals(Arrays.asList("linux"), names(partitions.get(1)));
+    }
+
+    @Test
+    public void rebalanceTooUnevenPartitions() {
+
+        node("linux");
+        node("windows");
+        item(1, "linux");
+        item(2, "windows");
+
+        final QueueState state = new QueueState(items, nodes);
+        final List<QueueState> previous = Arrays.asList(state, new QueueState(
+                Collections.<Integer, QueueState.Item>emptyMap(),
+                Collections.<String, QueueState.NodeState>emptyMap()
+        ));
+
+        final List<QueueState> partitions = SERIALIZER.partition(state, 2, previous);
+
+        assertEquals(1, partitions.get(0).size());
+        assertEquals(1, partitions.get(1).size());
+    }
+
+    @Test
+    public void mergeSolutionsOfPartitions() {
+
+        node("linux");
+        node("windows");
+        item(1, "linux");
+        item(2, "windows");
+
+        final List<QueueState> partitions = SERIALIZER.partition(new QueueState(items, nodes), 2);
+
+        // Solution of the other partition is ignored
+        final NodeAssignments merged = SERIALIZER.merge(partitions, Arrays.asList(
+                NodeAssignments.builder().assign(1, "linux").assign(2, "linux").build(),
+                NodeAssignments.builder().assign(2, "windows").build()
+        ));
+
+        assertEquals(
+                NodeAssignments.builder().assign(1, "linux").assign(2, "windows").build(),
+                merged
+        );
+    }
+
+    private void node(final String name) {
+
+        nodes.put(name, new QueueState.NodeState(name, 1, 1));
+    }
+
+    private void item(final int id, final String... nodes) {
+
+        items.put(id, new QueueState.Item(id, 50, id, "item" + id, Arrays.asList(nodes), null));
+    }
+
+    private List<Integer> ids(final QueueState state) {
+
+        final List<Integer> ids = new ArrayList<Integer>();
+        for (final QueueState.Item item: state.items()) {
+
+            ids.add(item.id);
+        }
+        return ids;
+    }
+
+    private List<String> names(final QueueState state) {
+
+        final List<String> names = new ArrayList<String>();
+        for (final QueueState.NodeState node: state.nodes()) {
+
+            names.add(node.name);
+        }
+        return names;
+    }
+}
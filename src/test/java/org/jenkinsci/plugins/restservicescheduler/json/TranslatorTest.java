@@ -27,6 +27,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.any;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.when;
@@ -35,19 +36,28 @@ import hudson.model.Node;
 import hudson.model.Queue;
 import hudson.model.queue.CauseOfBlockage;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.jenkinsci.plugins.externalscheduler.ItemMock;
 import org.jenkinsci.plugins.externalscheduler.NodeAssignments;
 import org.jenkinsci.plugins.externalscheduler.NodeMockFactory;
 import org.jenkinsci.plugins.externalscheduler.StateProviderMock;
+import org.jenkinsci.plugins.restservicescheduler.Score;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -56,7 +66,10 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 @RunWith(PowerMockRunner.class)
 @PrepareForTest({Node.class, Computer.class, Queue.BuildableItem.class})
@@ -103,6 +116,35 @@ public class TranslatorTest {
         assertEquals(null, assignments.nodeName(2));
     }
 
+    @Test
+    public void deserializeStream() throws IOException {
+
+        final NodeAssignments assignments = SERIALIZER.extractAssignments(
+                this.getClass().getResourceAsStream("solution.json")
+        );
+
+        assertEquals(2, assignments.size());
+        assertEquals("slave1", assignments.nodeName(1));
+        assertEquals(null, assignments.nodeName(2));
+    }
+
+    @Test
+    public void internNodeNames() {
+
+        final String solution = fixture("solution.json");
+
+        final NodeAssignments first = SERIALIZER.extractAssignments(solution);
+        final NodeAssignments second = SERIALIZER.extractAssignments(solution);
+
+        assertSame(first.nodeName(1), second.nodeName(1));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void rejectMalformedSolution() {
+
+        SERIALIZER.extractAssignments("{\"solution\": [{\"node\": \"slave1\"}]}");
+    }
+
     @Test
     public void serializeSingleItem() {
 
@@ -139,6 +181,246 @@ public class TranslatorTest {
         assertEquals(fixture("severalItems.queue.json"), actual);
     }
 
+    @Test
+    public void streamSeveralItems() throws IOException {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SERIALIZER.writeQuery(
+                new StateProviderMock(severalItems(), nodes),
+                NodeAssignments.builder()
+                        .assign(4, "slave2")
+                        .build(),
+                out
+        );
+
+        final String actual = out.toString("UTF-8");
+
+        assertThat(actual.contains("\n"), equalTo(false));
+        assertEquals(
+                new JsonParser().parse(fixture("severalItems.queue.json")),
+                new JsonParser().parse(actual)
+        );
+    }
+
+    @Test
+    public void streamSeveralItemsAsCbor() throws IOException {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SERIALIZER.writeQuery(
+                SERIALIZER.capture(
+                        new StateProviderMock(severalItems(), nodes),
+                        NodeAssignments.builder()
+                                .assign(4, "slave2")
+                                .build()
+                ),
+                out,
+                Codec.CBOR
+        );
+
+        final JsonReader reader = Codec.CBOR.reader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(
+                new JsonParser().parse(fixture("severalItems.queue.json")),
+                new JsonParser().parse(reader)
+        );
+    }
+
+    @Test
+    public void deserializeCborStream() throws IOException {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final JsonWriter writer = Codec.CBOR.writer(out);
+        writer.beginObject().name("solution").beginArray();
+        writer.beginObject().name("id").value(1).name("node").value("slave1").endObject();
+        writer.beginObject().name("id").value(2).name("node").value("not-assigned").endObject();
+        writer.endArray().endObject();
+        writer.flush();
+
+        final NodeAssignments assignments = SERIALIZER.extractAssignments(
+                new ByteArrayInputStream(out.toByteArray()), Codec.CBOR
+        );
+
+        assertEquals(2, assignments.size());
+        assertEquals("slave1", assignments.nodeName(1));
+        assertEquals(null, assignments.nodeName(2));
+    }
+
+    @Test
+    public void deserializeDefiniteLengthCborScore() throws IOException {
+
+        // {"score": 42, "ignored": 1.5} with definite map length and half precision float
+        final byte[] message = {
+                (byte) 0xa2,
+                0x65, 's', 'c', 'o', 'r', 'e', 0x18, 42,
+                0x67, 'i', 'g', 'n', 'o', 'r', 'e', 'd', (byte) 0xf9, 0x3e, 0x00
+        };
+
+        final Score score = SERIALIZER.extractScore(new ByteArrayInputStream(message), Codec.CBOR);
+
+        assertEquals(42, score.get());
+    }
+
+    @Test
+    public void applyChanges() {
+
+        final QueueState single = SERIALIZER.capture(
+                new StateProviderMock(singleItem(), nodes), NodeAssignments.empty()
+        );
+
+        final List<Queue.BuildableItem> several = severalItems();
+        final QueueState applied = SERIALIZER.apply(
+                single,
+                new StateProviderMock(several, nodes),
+                NodeAssignments.empty(),
+                several.subList(1, 2),
+                Collections.<Integer>emptyList(),
+                Collections.<Node>emptyList()
+        );
+
+        final QueueState captured = SERIALIZER.capture(
+                new StateProviderMock(severalItems(), nodes), NodeAssignments.empty()
+        );
+
+        assertThat(applied.size(), equalTo(2));
+        assertThat(applied.fingerprint(), equalTo(captured.fingerprint()));
+        assertThat(applied, equalTo(captured));
+
+        final QueueState removed = SERIALIZER.apply(
+                applied,
+                new StateProviderMock(singleItem(), nodes),
+                NodeAssignments.empty(),
+                Collections.<Queue.BuildableItem>emptyList(),
+                Arrays.asList(4),
+                Collections.<Node>emptyList()
+        );
+
+        assertThat(removed.size(), equalTo(1));
+        assertThat(removed.item(2), equalTo(single.item(2)));
+        assertThat(removed, equalTo(single));
+        assertThat(removed.fingerprint(), equalTo(single.fingerprint()));
+    }
+
+    @Test
+    public void captureInParallel() throws IOException {
+
+        final List<Queue.BuildableItem> items = ItemMock.list();
+        final List<Node> slaves = new ArrayList<Node>();
+        for (int i = 0; i < 10; i++) {
+
+            slaves.add(nodeFactory.node("slave" + i, 2, i % 3));
+        }
+
+        for (int id = 0; id < 100; id++) {
+
+            final SortedSet<Node> nodes = nodeFactory.set();
+            nodes.addAll(slaves.subList(id % 10, 10));
+            items.add(ItemMock.create(nodes, id, "item" + id, id));
+        }
+
+        final Translator.Snapshot snapshot = new Translator.Snapshot(
+                new StateProviderMock(items, slaves), NodeAssignments.empty()
+        );
+
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+
+            final QueueState sequential = new SnapshotSerializer().capture(snapshot);
+            final QueueState parallel = new SnapshotSerializer(pool, 4).capture(snapshot);
+
+            assertThat(parallel.fingerprint(), equalTo(sequential.fingerprint()));
+            assertEquals(
+                    new ArrayList<QueueState.Item>(sequential.items()),
+                    new ArrayList<QueueState.Item>(parallel.items())
+            );
+        } finally {
+
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void captureConcurrently() throws Exception {
+
+        final List<Translator.Snapshot> snapshots = new ArrayList<Translator.Snapshot>();
+        final List<String> expected = new ArrayList<String>();
+        for (int snapshot = 0; snapshot < 4; snapshot++) {
+
+            final List<Queue.BuildableItem> items = ItemMock.list();
+            final List<Node> slaves = new ArrayList<Node>();
+            for (int i = 0; i <= snapshot; i++) {
+
+                slaves.add(nodeFactory.node("slave" + snapshot + "_" + i, 2, 1));
+            }
+
+            for (int id = 0; id < 20; id++) {
+
+                final SortedSet<Node> nodes = nodeFactory.set();
+                nodes.addAll(slaves.subList(id % slaves.size(), slaves.size()));
+                items.add(ItemMock.create(nodes, snapshot * 100 + id, "item" + id, id));
+            }
+
+            final Translator.Snapshot src = new Translator.Snapshot(
+                    new StateProviderMock(items, slaves), NodeAssignments.empty()
+            );
+            snapshots.add(src);
+            expected.add(query(src));
+        }
+
+        final ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+
+            final List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 400; i++) {
+
+                final int snapshot = i % snapshots.size();
+                results.add(threads.submit(new Callable<Void>() {
+
+                    public Void call() throws IOException {
+
+                        assertEquals(expected.get(snapshot), query(snapshots.get(snapshot)));
+                        return null;
+                    }
+                }));
+            }
+
+            for (final Future<Void> result: results) {
+
+                result.get();
+            }
+        } finally {
+
+            threads.shutdown();
+        }
+    }
+
+    private String query(final Translator.Snapshot src) throws IOException {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SERIALIZER.writeQuery(src.stateProvider(), src.assignments(), out);
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void shareAssignableNodesOfEquivalentItems() {
+
+        final SortedSet<Node> nodes = nodeFactory.set();
+        nodes.add(nodeFactory.node("slave1", 2, 1));
+        nodes.add(nodeFactory.node("slave2", 2, 2));
+
+        final List<Queue.BuildableItem> items = ItemMock.list();
+        items.add(ItemMock.create(nodes, 1, "first", 1));
+        items.add(ItemMock.create(nodes, 2, "second", 2));
+
+        final QueueState state = SERIALIZER.capture(
+                new StateProviderMock(items, this.nodes),
+                NodeAssignments.builder().assign(2, "slave2").build()
+        );
+
+        assertEquals(Arrays.asList("slave1", "slave2"), state.item(1).nodes);
+        assertSame(state.item(1).nodes, state.item(2).nodes);
+        assertEquals(null, state.item(1).assigned);
+        assertEquals("slave2", state.item(2).assigned);
+    }
+
     private List<Queue.BuildableItem> severalItems() {
 
         final List<Queue.BuildableItem> items = ItemMock.list();
@@ -159,6 +441,124 @@ public class TranslatorTest {
         return items;
     }
 
+    @Test
+    public void serializeNodeDictionary() throws IOException {
+
+        final QueueState state = SERIALIZER.capture(
+                new StateProviderMock(severalItems(), nodes),
+                NodeAssignments.builder().assign(4, "slave2").build()
+        );
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SERIALIZER.writeDictionaryQuery(state, out);
+
+        final JsonObject query = new JsonParser().parse(out.toString("UTF-8")).getAsJsonObject();
+
+        final JsonArray nodes = query.get("nodes").getAsJsonArray();
+        assertThat(nodes.size(), equalTo(3));
+        assertThat(nodes.get(2).getAsJsonObject().get("name").getAsString(), equalTo("slave2"));
+
+        final JsonObject item = query.get("queue").getAsJsonArray().get(1).getAsJsonObject();
+        assertThat(item.get("nodes").getAsJsonArray().size(), equalTo(2));
+        assertThat(item.get("nodes").getAsJsonArray().get(0).getAsInt(), equalTo(1));
+        assertThat(item.get("assigned").getAsInt(), equalTo(2));
+    }
+
+    @Test
+    public void serializeDelta() throws IOException {
+
+        final QueueState previous = SERIALIZER.capture(
+                new StateProviderMock(severalItems(), nodes),
+                NodeAssignments.builder().assign(4, "slave2").build()
+        );
+
+        final QueueState current = SERIALIZER.capture(
+                new StateProviderMock(singleItem(), nodes),
+                NodeAssignments.empty()
+        );
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SERIALIZER.writeDelta(previous, current, out);
+
+        final JsonObject delta = new JsonParser().parse(out.toString("UTF-8")).getAsJsonObject();
+
+        assertThat(delta.get("items").getAsJsonArray().size(), equalTo(0));
+        assertThat(delta.get("removed").getAsJsonArray().size(), equalTo(1));
+        assertThat(delta.get("removed").getAsJsonArray().get(0).getAsInt(), equalTo(4));
+        assertThat(delta.get("nodes").getAsJsonArray().size(), equalTo(0));
+        assertThat(delta.get("removedNodes").getAsJsonArray().size(), equalTo(2));
+    }
+
+    @Test
+    public void serializeDeltaOfChangedNode() throws IOException {
+
+        final QueueState previous = SERIALIZER.capture(
+                new StateProviderMock(singleItem(), nodes), NodeAssignments.empty()
+        );
+
+        final List<Queue.BuildableItem> items = ItemMock.list();
+        final Set<Node> busy = nodeFactory.set();
+        busy.add(nodeFactory.node("master", 2, 0));
+        items.add(ItemMock.create(busy, 2, "Single queue item", 3));
+
+        final QueueState current = SERIALIZER.capture(
+                new StateProviderMock(items, nodes), NodeAssignments.empty()
+        );
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SERIALIZER.writeDelta(previous, current, out);
+
+        final JsonObject delta = new JsonParser().parse(out.toString("UTF-8")).getAsJsonObject();
+
+        assertThat(delta.get("items").getAsJsonArray().size(), equalTo(0));
+        final JsonArray nodes = delta.get("nodes").getAsJsonArray();
+        assertThat(nodes.size(), equalTo(1));
+        assertThat(nodes.get(0).getAsJsonObject().get("freeExecutors").getAsInt(), equalTo(0));
+    }
+
+    @Test
+    public void fingerprint() {
+
+        final QueueState state = SERIALIZER.capture(
+                new StateProviderMock(severalItems(), nodes), NodeAssignments.empty()
+        );
+
+        final QueueState same = SERIALIZER.capture(
+                new StateProviderMock(severalItems(), nodes), NodeAssignments.empty()
+        );
+
+        final QueueState assigned = SERIALIZER.capture(
+                new StateProviderMock(severalItems(), nodes),
+                NodeAssignments.builder().assign(4, "slave2").build()
+        );
+
+        assertThat(same.fingerprint(), equalTo(state.fingerprint()));
+        assertThat(assigned.fingerprint() == state.fingerprint(), equalTo(false));
+        assertThat(same, equalTo(state));
+    }
+
+    @Test
+    public void tellStatesWithSameFingerprintApart() {
+
+        final List<String> assignable = Arrays.asList("master");
+        final QueueState state = state(new QueueState.Item(1, 50, 1000, "job", assignable, null));
+        final QueueState reprioritized = state(new QueueState.Item(1, 80, 1000, "job", assignable, null));
+
+        // Priority is not part of the fingerprint
+        assertThat(reprioritized.fingerprint(), equalTo(state.fingerprint()));
+        assertThat(reprioritized.equals(state), equalTo(false));
+
+        assertThat(state(new QueueState.Item(1, 50, 1000, "job", assignable, null)), equalTo(state));
+    }
+
+    private QueueState state(final QueueState.Item item) {
+
+        return new QueueState(
+                Collections.singletonMap(item.id, item),
+                Collections.singletonMap("master", new QueueState.NodeState("master", 2, 1))
+        );
+    }
+
     @Test
     public void serializeUnlabeledItem() {
 